@@ -0,0 +1,363 @@
+/*
+ * Parses a directory of dumps on several worker threads.
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch scheduler for directory inputs.
+ *
+ * Files are scheduled largest first so that one big dump at the end of the
+ * directory listing does not decide the total run time. The number of
+ * workers is limited by the available cores and by the maximum heap. Both
+ * passes run on the same workers and each worker keeps its parser instance
+ * between files.
+ *
+ * The columns found in each file are merged in directory listing order so
+ * that the csv headers are the same as those of a sequential run. In the
+ * value extraction pass all workers write to shared className csv files.
+ *
+ * Dumps are not split into chunks. The StAX reader needs the whole document
+ * so each file is one task.
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+public class BatchScheduler {
+
+    /**
+     * Heap reserved for each worker when sizing the pool.
+     */
+    static final long WORKER_MEMORY = 64L * 1024 * 1024;
+
+    /**
+     * Files in directory listing order.
+     */
+    private final List<File> files = new ArrayList<File>();
+
+    private final String outputDirectory;
+
+    /**
+     * Upper limit on the number of workers.
+     */
+    private int maxThreads = Runtime.getRuntime().availableProcessors();
+
+    private String parameterFile = null;
+
+    private OutputRotation outputRotation = OutputRotation.NONE;
+
+    private FdnIndex fdnIndex = null;
+
+    private String dedupeTimeAttr = null;
+
+    private NeFilter neFilter = null;
+
+    private boolean columnStats = false;
+
+    /**
+     * Parser instance for each worker.
+     */
+    private HuaweiCMMOTreeParser[] parsers;
+
+    public BatchScheduler(File directory, String outputDirectory){
+        this.outputDirectory = outputDirectory;
+
+        File[] fList = directory.listFiles();
+        if(fList != null){
+            for(File f : fList){
+                if(f.isFile()) files.add(f);
+            }
+        }
+    }
+
+    /**
+     * Set the upper limit on the number of workers.
+     *
+     * @param threads
+     */
+    public void setMaxThreads(int threads){
+        maxThreads = threads;
+    }
+
+    /**
+     * Set the parameter configuration file.
+     *
+     * @param filename
+     */
+    public void setParameterFile(String filename){
+        parameterFile = filename;
+    }
+
+    /**
+     * Set the output file rotation and sharding.
+     *
+     * @param rotation
+     */
+    public void setOutputRotation(OutputRotation rotation){
+        outputRotation = rotation;
+    }
+
+    /**
+     * Keep only the newest instance of each fdn.
+     *
+     * @param index
+     * @param timeAttribute
+     */
+    public void setFdnIndex(FdnIndex index, String timeAttribute){
+        fdnIndex = index;
+        dedupeTimeAttr = timeAttribute;
+    }
+
+    /**
+     * Parse only the network elements selected by the filter.
+     *
+     * @param filter
+     */
+    public void setNeFilter(NeFilter filter){
+        neFilter = filter;
+    }
+
+    /**
+     * Collect statistics of the values written per className column.
+     *
+     * @param enabled
+     */
+    public void setColumnStats(boolean enabled){
+        columnStats = enabled;
+    }
+
+    /**
+     * Files in directory listing order.
+     *
+     * @return List
+     */
+    List<File> getFiles(){
+        return files;
+    }
+
+    /**
+     * Number of workers for the given number of files.
+     *
+     * @param fileCount
+     * @return int
+     */
+    int workerCount(int fileCount){
+        int workers = Math.min(maxThreads, Runtime.getRuntime().availableProcessors());
+        long memoryLimit = Runtime.getRuntime().maxMemory() / WORKER_MEMORY;
+        if(memoryLimit < workers) workers = (int) memoryLimit;
+        if(fileCount < workers) workers = fileCount;
+        return workers < 1 ? 1 : workers;
+    }
+
+    /**
+     * Indices into the files list, largest file first.
+     *
+     * @return List
+     */
+    List<Integer> schedule(){
+        List<Integer> order = new ArrayList<Integer>();
+        for(int i = 0; i < files.size(); i++) order.add(i);
+
+        Collections.sort(order, new Comparator<Integer>(){
+            @Override
+            public int compare(Integer a, Integer b){
+                long sa = files.get(a).length();
+                long sb = files.get(b).length();
+                if(sa != sb) return sa > sb ? -1 : 1;
+                return a.compareTo(b);
+            }
+        });
+        return order;
+    }
+
+    /**
+     * Parse all files.
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        List<Integer> order = schedule();
+        int workers = workerCount(files.size());
+
+        System.out.println("Scheduling " + files.size() + " file(s) on "
+                + workers + " worker(s):");
+        for(Integer i : order){
+            System.out.println("  " + files.get(i).length() + "\t"
+                    + files.get(i).getName());
+        }
+
+        parsers = new HuaweiCMMOTreeParser[workers];
+        for(int w = 0; w < workers; w++){
+            parsers[w] = new HuaweiCMMOTreeParser();
+            if(parameterFile != null){
+                parsers[w].setParameterFile(parameterFile);
+                parsers[w].getParametersToExtract(parameterFile);
+            }
+            parsers[w].setFdnIndex(fdnIndex, dedupeTimeAttr);
+            parsers[w].setNeFilter(neFilter);
+            if(columnStats) parsers[w].setColumnStats(new ColumnStatistics());
+        }
+
+        //The fdn index is built in the parameter extraction pass
+        Map<String, Stack> columns = parsers[0].getMOColumns();
+        if(parameterFile == null || fdnIndex != null){
+            Map<String, Stack> fileColumns = extractParameters(order);
+            if(parameterFile == null) columns = fileColumns;
+        }
+
+        extractValues(order, columns);
+
+        //Each worker kept its own statistics
+        if(columnStats){
+            ColumnStatistics merged = new ColumnStatistics();
+            for(HuaweiCMMOTreeParser parser : parsers){
+                merged.merge(parser.getColumnStats());
+            }
+            merged.write(outputDirectory);
+        }
+    }
+
+    /**
+     * Collect the columns of each file and merge them in listing order.
+     *
+     * @param order
+     * @return Map
+     * @throws InterruptedException
+     */
+    private Map<String, Stack> extractParameters(List<Integer> order)
+            throws InterruptedException {
+        final Map<String, Stack>[] fileColumns = new Map[files.size()];
+
+        runPass("Extracting parameters", order, new FileTask(){
+            @Override
+            public void process(HuaweiCMMOTreeParser parser, int index)
+                    throws Exception {
+                parser.resetParser();
+                parser.parseFile(files.get(index).getAbsolutePath());
+                fileColumns[index] = parser.getMOColumns();
+            }
+        });
+
+        Map<String, Stack> columns = new LinkedHashMap<String, Stack>();
+        for(Map<String, Stack> fc : fileColumns){
+            if(fc != null) HuaweiCMMOTreeParser.mergeColumns(columns, fc);
+        }
+        return columns;
+    }
+
+    /**
+     * Write the values of all files to the shared csv files.
+     *
+     * @param order
+     * @param columns
+     * @throws InterruptedException
+     * @throws FileNotFoundException
+     */
+    private void extractValues(List<Integer> order, Map<String, Stack> columns)
+            throws InterruptedException, FileNotFoundException {
+        Map<String, MOCsvWriter> printWriters
+                = new ConcurrentHashMap<String, MOCsvWriter>();
+
+        for(HuaweiCMMOTreeParser parser : parsers){
+            parser.resetParser();
+            parser.setMOColumns(columns);
+            parser.setPrintWriters(printWriters);
+            parser.setOutputDirectory(outputDirectory);
+            parser.setOutputRotation(outputRotation);
+            parser.setParserState(ParserStates.EXTRACTING_VALUES);
+        }
+
+        try{
+            runPass("Parsing", order, new FileTask(){
+                @Override
+                public void process(HuaweiCMMOTreeParser parser, int index)
+                        throws Exception {
+                    parser.resetVariables();
+                    parser.parseFile(files.get(index).getAbsolutePath());
+                }
+            });
+        }finally{
+            for(HuaweiCMMOTreeParser parser : parsers){
+                parser.setPrintWriters(new LinkedHashMap<String, MOCsvWriter>());
+            }
+            MOCsvWriter.closeAll(printWriters, outputDirectory, outputRotation);
+        }
+    }
+
+    /**
+     * Work done on one file by a worker.
+     */
+    private interface FileTask {
+        void process(HuaweiCMMOTreeParser parser, int index) throws Exception;
+    }
+
+    /**
+     * Run a task for every file on the workers and log each worker's
+     * utilisation.
+     *
+     * @param passName
+     * @param order
+     * @param task
+     * @throws InterruptedException
+     */
+    private void runPass(final String passName, final List<Integer> order,
+            final FileTask task) throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger(0);
+        final long[] busyTime = new long[parsers.length];
+        final int[] fileCount = new int[parsers.length];
+        Thread[] threads = new Thread[parsers.length];
+
+        long passStart = System.currentTimeMillis();
+
+        for(int w = 0; w < parsers.length; w++){
+            final int worker = w;
+            threads[w] = new Thread(new Runnable(){
+                @Override
+                public void run(){
+                    int n;
+                    while((n = next.getAndIncrement()) < order.size()){
+                        int index = order.get(n);
+                        File f = files.get(index);
+                        long start = System.currentTimeMillis();
+                        try{
+                            task.process(parsers[worker], index);
+                            System.out.println(passName + " " + f.getName()
+                                    + "...Done.");
+                        }catch(Exception e){
+                            System.out.println(e.getMessage());
+                            System.out.println("Skipping file: " + f.getName() + "\n");
+                        }
+                        busyTime[worker] += System.currentTimeMillis() - start;
+                        fileCount[worker]++;
+                    }
+                }
+            }, "parser-worker-" + w);
+            threads[w].start();
+        }
+
+        for(Thread t : threads){
+            t.join();
+        }
+
+        long wallTime = Math.max(1, System.currentTimeMillis() - passStart);
+        System.out.println(passName + " took " + wallTime + " ms");
+        for(int w = 0; w < parsers.length; w++){
+            System.out.println("  worker " + w + ": " + fileCount[w]
+                    + " file(s), busy " + busyTime[w] + " ms ("
+                    + (100 * busyTime[w] / wallTime) + "%)");
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ *
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Statistics of the values written to each className column.
+ *
+ * For each column the number of rows and of empty values, the number of
+ * distinct values (HyperLogLog), the most frequent values (Space-Saving) and
+ * the minimum and maximum are kept in fixed memory: a 1KB sketch and
+ * TOP_K_CAPACITY counted values per column. The minimum and maximum are
+ * numeric while all values of the column are numbers and lexical otherwise.
+ *
+ * The statistics of several parsers are combined with merge.
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+public class ColumnStatistics {
+
+    /**
+     * Name of the statistics file in the output directory.
+     */
+    public static final String STATS_FILE = "column_stats.csv";
+
+    /**
+     * Number of most frequent values written per column.
+     */
+    static final int TOP_K = 5;
+
+    /**
+     * Number of values counted per column for the most frequent values.
+     */
+    static final int TOP_K_CAPACITY = 4 * TOP_K;
+
+    /**
+     * Statistics by className.
+     */
+    private final Map<String, ClassStats> classes = new LinkedHashMap<String, ClassStats>();
+
+    /**
+     * Add the values of one row.
+     *
+     * @param className
+     * @param columns The className's column stack
+     * @param attrs The row's values by column
+     */
+    public void add(String className, Stack columns, Map<String, String> attrs){
+        ClassStats stats = classes.get(className);
+        if(stats == null){
+            stats = new ClassStats();
+            classes.put(className, stats);
+        }
+
+        Stats[] slots = stats.slotsFor(columns);
+        for(int i = 0; i < slots.length; i++){
+            slots[i].add(attrs.get(slots[i].column));
+        }
+    }
+
+    /**
+     * Add the statistics of another parser.
+     *
+     * @param other
+     */
+    public void merge(ColumnStatistics other){
+        for(Map.Entry<String, ClassStats> me : other.classes.entrySet()){
+            ClassStats stats = classes.get(me.getKey());
+            if(stats == null){
+                stats = new ClassStats();
+                classes.put(me.getKey(), stats);
+            }
+            for(Stats column : me.getValue().byColumn.values()){
+                stats.statsFor(column.column).merge(column);
+            }
+        }
+    }
+
+    /**
+     * Forget all statistics.
+     */
+    public void clear(){
+        classes.clear();
+    }
+
+    /**
+     * Statistics of one column. Null if the column was not seen.
+     *
+     * @param className
+     * @param column
+     * @return Stats
+     */
+    Stats get(String className, String column){
+        ClassStats stats = classes.get(className);
+        return stats == null ? null : stats.byColumn.get(column);
+    }
+
+    /**
+     * Write the statistics to column_stats.csv in the given directory.
+     *
+     * @param directory
+     * @throws FileNotFoundException
+     */
+    public void write(String directory) throws FileNotFoundException {
+        PrintWriter pw = new PrintWriter(new File(directory, STATS_FILE));
+        StringBuilder header = new StringBuilder(
+                "CLASSNAME,COLUMN,ROWS,EMPTY,EMPTY_RATIO,DISTINCT,MIN,MAX");
+        for(int i = 1; i <= TOP_K; i++){
+            header.append(",TOP").append(i).append(",TOP").append(i).append("_COUNT");
+        }
+        pw.println(header.toString());
+
+        Iterator<Map.Entry<String, ClassStats>> iter = classes.entrySet().iterator();
+        while(iter.hasNext()){
+            Map.Entry<String, ClassStats> me = iter.next();
+            for(Stats column : me.getValue().byColumn.values()){
+                pw.println(column.toCSV(me.getKey()));
+            }
+        }
+        pw.close();
+    }
+
+    /**
+     * Column statistics of one className.
+     */
+    private static class ClassStats {
+
+        private final Map<String, Stats> byColumn = new LinkedHashMap<String, Stats>();
+
+        /**
+         * Column statistics in column stack order, without the default
+         * columns. Rebuilt when the column stack changes.
+         */
+        private Stats[] slots = new Stats[0];
+
+        private Stack slotColumns = null;
+
+        private int slotColumnCount = 0;
+
+        Stats[] slotsFor(Stack columns){
+            if(columns == slotColumns && columns.size() == slotColumnCount) return slots;
+
+            List<Stats> list = new ArrayList<Stats>();
+            for(int i = 0; i < columns.size(); i++){
+                String p = columns.get(i).toString();
+                if(RowEncoder.isDefaultColumn(p)) continue;
+                list.add(statsFor(p));
+            }
+            slots = list.toArray(new Stats[list.size()]);
+            slotColumns = columns;
+            slotColumnCount = columns.size();
+            return slots;
+        }
+
+        Stats statsFor(String column){
+            Stats stats = byColumn.get(column);
+            if(stats == null){
+                stats = new Stats(column);
+                byColumn.put(column, stats);
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Statistics of one column.
+     */
+    static class Stats {
+        final String column;
+        long rows = 0;
+        long empty = 0;
+
+        /**
+         * Created on the first value that is not empty.
+         */
+        private HyperLogLog distinct = null;
+        private SpaceSaving top = null;
+
+        private String min = null;
+        private String max = null;
+
+        /**
+         * Whether all values so far are numbers.
+         */
+        private boolean numeric = true;
+        private double numericMin = Double.POSITIVE_INFINITY;
+        private double numericMax = Double.NEGATIVE_INFINITY;
+
+        Stats(String column){
+            this.column = column;
+        }
+
+        void add(String value){
+            rows++;
+            if(value == null || value.isEmpty()){
+                empty++;
+                return;
+            }
+
+            if(distinct == null){
+                distinct = new HyperLogLog();
+                top = new SpaceSaving(TOP_K_CAPACITY);
+            }
+            distinct.add(value);
+            top.add(value);
+
+            if(min == null || value.compareTo(min) < 0) min = value;
+            if(max == null || value.compareTo(max) > 0) max = value;
+
+            if(numeric){
+                if(isNumber(value)){
+                    double d = Double.parseDouble(value);
+                    if(d < numericMin) numericMin = d;
+                    if(d > numericMax) numericMax = d;
+                }else{
+                    numeric = false;
+                }
+            }
+        }
+
+        void merge(Stats other){
+            rows += other.rows;
+            empty += other.empty;
+            if(other.distinct == null) return;
+
+            if(distinct == null){
+                distinct = new HyperLogLog();
+                top = new SpaceSaving(TOP_K_CAPACITY);
+            }
+            distinct.merge(other.distinct);
+            top.merge(other.top);
+
+            if(min == null || other.min.compareTo(min) < 0) min = other.min;
+            if(max == null || other.max.compareTo(max) > 0) max = other.max;
+            numeric = numeric && other.numeric;
+            numericMin = Math.min(numericMin, other.numericMin);
+            numericMax = Math.max(numericMax, other.numericMax);
+        }
+
+        /**
+         * Number of distinct values. Exact while the column has no more
+         * distinct values than are counted for the most frequent values.
+         * The estimate is capped at the number of values.
+         *
+         * @return long
+         */
+        long distinctCount(){
+            if(distinct == null) return 0;
+            if(top.isExact()) return top.size();
+            return Math.min(distinct.estimate(), rows - empty);
+        }
+
+        String getMin(){
+            if(min == null) return "";
+            return numeric ? formatNumber(numericMin) : min;
+        }
+
+        String getMax(){
+            if(max == null) return "";
+            return numeric ? formatNumber(numericMax) : max;
+        }
+
+        String toCSV(String className){
+            StringBuilder sb = new StringBuilder();
+            sb.append(HuaweiCMMOTreeParser.toCSVFormat(className)).append(',');
+            sb.append(HuaweiCMMOTreeParser.toCSVFormat(column)).append(',');
+            sb.append(rows).append(',').append(empty).append(',');
+            sb.append(rows == 0 ? "0" : String.format("%.4f", (double) empty / rows)).append(',');
+            sb.append(distinctCount()).append(',');
+            sb.append(HuaweiCMMOTreeParser.toCSVFormat(getMin())).append(',');
+            sb.append(HuaweiCMMOTreeParser.toCSVFormat(getMax()));
+
+            List<Map.Entry<String, Long>> frequent = top == null
+                    ? Collections.<Map.Entry<String, Long>>emptyList() : top.top(TOP_K);
+            for(int i = 0; i < TOP_K; i++){
+                sb.append(',');
+                if(i < frequent.size()){
+                    sb.append(HuaweiCMMOTreeParser.toCSVFormat(frequent.get(i).getKey()));
+                    sb.append(',').append(frequent.get(i).getValue());
+                }else{
+                    sb.append(',');
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Whether the value is a plain decimal number. Checked by hand so that
+     * other values do not cost an exception.
+     */
+    static boolean isNumber(String s){
+        int i = 0;
+        int n = s.length();
+        if(n > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) i++;
+
+        boolean digits = false;
+        boolean dot = false;
+        for(; i < n; i++){
+            char c = s.charAt(i);
+            if(c >= '0' && c <= '9'){
+                digits = true;
+            }else if(c == '.' && !dot){
+                dot = true;
+            }else{
+                return false;
+            }
+        }
+        return digits && n < 20;
+    }
+
+    private static String formatNumber(double d){
+        if(d == Math.rint(d) && Math.abs(d) < 1e15) return String.valueOf((long) d);
+        return String.valueOf(d);
+    }
+}
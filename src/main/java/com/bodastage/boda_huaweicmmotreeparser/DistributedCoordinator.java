@@ -0,0 +1,434 @@
+/*
+ * Shares the parsing of a directory of dumps among worker processes.
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Coordinator for parsing with several worker processes.
+ *
+ * The input files are shared among the workers largest first, always giving
+ * the next file to the worker with the least data. Each worker is a separate
+ * JVM running this parser on its own file list, so the workers can also be
+ * started on other hosts through the worker launcher as long as the input
+ * and output directories are on a shared filesystem.
+ *
+ * The run has three steps:
+ * 1. Every worker extracts the parameters of its files with -p.
+ * 2. The coordinator merges the parameter lists into one parameter file so
+ *    that all workers write the same columns.
+ * 3. Every worker parses its files with that parameter file into its own
+ *    directory under the output directory.
+ *
+ * The workers' className csv files are then concatenated into the output
+ * directory. With output rotation or sharding the worker files are kept
+ * and their manifests are combined into one manifest instead.
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+public class DistributedCoordinator {
+
+    /**
+     * Directory in the output directory holding the workers' files.
+     */
+    static final String WORK_DIRECTORY = "workers";
+
+    /**
+     * Merged parameter file in the work directory.
+     */
+    static final String PARAMETERS_FILE = "parameters.cfg";
+
+    private final File inputDirectory;
+
+    private final File outputDirectory;
+
+    private final File workDirectory;
+
+    private final int workers;
+
+    private String parameterFile = null;
+
+    private OutputRotation outputRotation = OutputRotation.NONE;
+
+    private NeFilter neFilter = null;
+
+    /**
+     * Command prefix used to start each worker, for example "ssh node{worker}".
+     * {worker} is replaced by the worker number. Workers run locally when
+     * not set.
+     */
+    private String workerLauncher = null;
+
+    public DistributedCoordinator(File inputDirectory, File outputDirectory,
+            int workers){
+        this.inputDirectory = inputDirectory;
+        this.outputDirectory = outputDirectory;
+        this.workDirectory = new File(outputDirectory, WORK_DIRECTORY);
+        this.workers = workers < 1 ? 1 : workers;
+    }
+
+    /**
+     * Set the parameter configuration file. The parameter extraction step is
+     * skipped when it is set.
+     *
+     * @param filename
+     */
+    public void setParameterFile(String filename){
+        parameterFile = filename;
+    }
+
+    /**
+     * Set the output file rotation and sharding.
+     *
+     * @param rotation
+     */
+    public void setOutputRotation(OutputRotation rotation){
+        outputRotation = rotation;
+    }
+
+    /**
+     * Parse only the network elements selected by the filter.
+     *
+     * @param filter
+     */
+    public void setNeFilter(NeFilter filter){
+        neFilter = filter;
+    }
+
+    /**
+     * Set the command prefix used to start the workers.
+     *
+     * @param launcher
+     */
+    public void setWorkerLauncher(String launcher){
+        workerLauncher = launcher;
+    }
+
+    /**
+     * Run all steps.
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        List<List<File>> partitions = partition();
+        int count = partitions.size();
+
+        for(int w = 0; w < count; w++){
+            File dir = workerDirectory(w);
+            dir.mkdirs();
+            PrintWriter pw = new PrintWriter(new File(dir, "files.txt"));
+            long bytes = 0;
+            for(File f : partitions.get(w)){
+                pw.println(f.getAbsolutePath());
+                bytes += f.length();
+            }
+            pw.close();
+            System.out.println("Worker " + w + ": " + partitions.get(w).size()
+                    + " file(s), " + bytes + " bytes");
+        }
+
+        String mergedParameters = parameterFile;
+        if(mergedParameters == null){
+            System.out.println("Extracting parameters on " + count + " worker(s)...");
+            List<String> args = new ArrayList<String>();
+            args.add("-p");
+            addNeFilter(args);
+            runWorkers(count, "parameters", args);
+            mergedParameters = mergeParameters(count);
+        }
+
+        System.out.println("Parsing on " + count + " worker(s)...");
+        List<String> args = new ArrayList<String>();
+        args.add("-c");
+        args.add(new File(mergedParameters).getAbsolutePath());
+        if(outputRotation.maxRows > 0){
+            args.add("--max-rows");
+            args.add(String.valueOf(outputRotation.maxRows));
+        }
+        if(outputRotation.maxBytes > 0){
+            args.add("--max-bytes");
+            args.add(String.valueOf(outputRotation.maxBytes));
+        }
+        if(outputRotation.shardByNodeName) args.add("--shard-by-ne");
+        addNeFilter(args);
+        runWorkers(count, "parse", args);
+
+        if(outputRotation.isEnabled()){
+            combineManifests(count);
+        }else{
+            combineOutputs(count);
+        }
+    }
+
+    /**
+     * Share the input files among the workers, largest first, giving each
+     * file to the worker with the fewest bytes so far.
+     *
+     * @return List
+     */
+    List<List<File>> partition(){
+        BatchScheduler scheduler = new BatchScheduler(inputDirectory, null);
+        List<File> listed = scheduler.getFiles();
+
+        int count = Math.max(1, Math.min(workers, listed.size()));
+        List<List<File>> partitions = new ArrayList<List<File>>();
+        long[] load = new long[count];
+        for(int w = 0; w < count; w++) partitions.add(new ArrayList<File>());
+
+        for(Integer i : scheduler.schedule()){
+            File f = listed.get(i);
+            int target = 0;
+            for(int w = 1; w < count; w++){
+                if(load[w] < load[target]) target = w;
+            }
+            partitions.get(target).add(f);
+            load[target] += f.length();
+        }
+        return partitions;
+    }
+
+    private void addNeFilter(List<String> args){
+        if(neFilter != null){
+            args.add("--ne-filter");
+            args.add(neFilter.toString());
+        }
+    }
+
+    private File workerDirectory(int worker){
+        return new File(workDirectory, "worker-" + worker);
+    }
+
+    /**
+     * The command line of a worker. With a launcher, the launcher's words
+     * come first and the java command line follows shell quoted, since
+     * launchers such as ssh join their arguments and have them parsed again
+     * by a remote shell.
+     *
+     * @param worker
+     * @param args Arguments added to the worker's command line
+     * @return List
+     */
+    List<String> workerCommand(int worker, List<String> args){
+        File dir = workerDirectory(worker);
+
+        //Relative entries would be resolved against the worker's directory
+        StringBuilder classPath = new StringBuilder();
+        for(String entry : System.getProperty("java.class.path").split(File.pathSeparator)){
+            if(entry.isEmpty()) continue;
+            if(classPath.length() > 0) classPath.append(File.pathSeparator);
+            classPath.append(new File(entry).getAbsolutePath());
+        }
+
+        List<String> java = new ArrayList<String>();
+        java.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+        java.add("-cp");
+        java.add(classPath.toString());
+        java.add(HuaweiCMMOTreeParser.class.getName());
+        java.add("--input-list");
+        java.add(new File(dir, "files.txt").getAbsolutePath());
+        java.add("-o");
+        java.add(dir.getAbsolutePath());
+        java.addAll(args);
+
+        if(workerLauncher == null) return java;
+
+        List<String> command = new ArrayList<String>();
+        for(String part : workerLauncher.trim().split("\\s+")){
+            command.add(part.replace("{worker}", String.valueOf(worker)));
+        }
+        for(String part : java){
+            command.add(shellQuote(part));
+        }
+        return command;
+    }
+
+    /**
+     * Quote a word for a POSIX shell.
+     *
+     * @param word
+     * @return String
+     */
+    static String shellQuote(String word){
+        return "'" + word.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Start one process per worker and wait for all of them.
+     *
+     * @param count Number of workers
+     * @param step Name of the step, used for the log files
+     * @param args Arguments added to each worker's command line
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void runWorkers(int count, String step, List<String> args)
+            throws IOException, InterruptedException {
+        Process[] processes = new Process[count];
+        for(int w = 0; w < count; w++){
+            File dir = workerDirectory(w);
+
+            List<String> command = workerCommand(w, args);
+
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(new File(dir, step + ".log"));
+            processes[w] = pb.start();
+        }
+
+        List<Integer> failed = new ArrayList<Integer>();
+        for(int w = 0; w < count; w++){
+            if(processes[w].waitFor() != 0) failed.add(w);
+        }
+        if(!failed.isEmpty()){
+            throw new IOException("Worker(s) " + failed + " failed in the "
+                    + step + " step. See " + step + ".log in "
+                    + workDirectory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Merge the workers' parameter lists in worker order into one parameter
+     * file.
+     *
+     * @param count
+     * @return String The merged parameter file
+     * @throws IOException
+     */
+    private String mergeParameters(int count) throws IOException {
+        HuaweiCMMOTreeParser merged = new HuaweiCMMOTreeParser();
+        Map<String, Stack> columns = new LinkedHashMap<String, Stack>();
+        for(int w = 0; w < count; w++){
+            HuaweiCMMOTreeParser worker = new HuaweiCMMOTreeParser();
+            worker.getParametersToExtract(new File(workerDirectory(w),
+                    HuaweiCMMOTreeParser.PARAMETERS_FILE).getAbsolutePath());
+            HuaweiCMMOTreeParser.mergeColumns(columns, worker.getMOColumns());
+        }
+
+        merged.setMOColumns(columns);
+        merged.setOutputDirectory(workDirectory.getAbsolutePath());
+        merged.writeParameters();
+
+        File parameters = new File(workDirectory, PARAMETERS_FILE);
+        parameters.delete();
+        new File(workDirectory, HuaweiCMMOTreeParser.PARAMETERS_FILE)
+                .renameTo(parameters);
+        return parameters.getAbsolutePath();
+    }
+
+    /**
+     * Concatenate the workers' className csv files into the output
+     * directory, keeping the header of the first one.
+     *
+     * @param count
+     * @throws IOException
+     */
+    private void combineOutputs(int count) throws IOException {
+        Map<String, List<File>> classFiles = new LinkedHashMap<String, List<File>>();
+        for(int w = 0; w < count; w++){
+            File[] fList = workerDirectory(w).listFiles();
+            if(fList == null) continue;
+            for(File f : fList){
+                if(!f.getName().endsWith(".csv")
+                        || f.getName().equals(HuaweiCMMOTreeParser.PARAMETERS_FILE)) continue;
+                List<File> files = classFiles.get(f.getName());
+                if(files == null){
+                    files = new ArrayList<File>();
+                    classFiles.put(f.getName(), files);
+                }
+                files.add(f);
+            }
+        }
+
+        byte[] buffer = new byte[1 << 16];
+        for(Map.Entry<String, List<File>> me : classFiles.entrySet()){
+            OutputStream out = new FileOutputStream(new File(outputDirectory, me.getKey()));
+            try{
+                boolean first = true;
+                for(File f : me.getValue()){
+                    InputStream in = new FileInputStream(f);
+                    try{
+                        if(!first) skipLine(in);
+                        for(int n; (n = in.read(buffer)) > 0; ){
+                            out.write(buffer, 0, n);
+                        }
+                    }finally{
+                        in.close();
+                    }
+                    first = false;
+                }
+            }finally{
+                out.close();
+            }
+        }
+
+        deleteRecursively(workDirectory);
+        System.out.println("Combined " + classFiles.size() + " className file(s) into "
+                + outputDirectory.getAbsolutePath());
+    }
+
+    /**
+     * Write one manifest listing the files of all workers. The worker files
+     * stay in the work directory.
+     *
+     * @param count
+     * @throws IOException
+     */
+    private void combineManifests(int count) throws IOException {
+        PrintWriter pw = new PrintWriter(new File(outputDirectory, MOCsvWriter.MANIFEST_FILE));
+        pw.println("FILE,CLASSNAME,NODENAME,ROWS,BYTES");
+        for(int w = 0; w < count; w++){
+            File manifest = new File(workerDirectory(w), MOCsvWriter.MANIFEST_FILE);
+            if(!manifest.exists()) continue;
+
+            String prefix = WORK_DIRECTORY + "/worker-" + w + "/";
+            BufferedReader br = new BufferedReader(new FileReader(manifest));
+            try{
+                br.readLine();
+                for(String line; (line = br.readLine()) != null; ) {
+                    pw.println(prefix + line);
+                }
+            }finally{
+                br.close();
+            }
+        }
+        pw.close();
+        System.out.println("Wrote " + MOCsvWriter.MANIFEST_FILE + " for the files in "
+                + workDirectory.getAbsolutePath());
+    }
+
+    /**
+     * Skip the first line of a stream.
+     */
+    private static void skipLine(InputStream in) throws IOException {
+        for(int c; (c = in.read()) != -1; ){
+            if(c == '\n') return;
+        }
+    }
+
+    private static void deleteRecursively(File file){
+        File[] children = file.listFiles();
+        if(children != null){
+            for(File child : children){
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ *
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the newest dump holding each fdn.
+ *
+ * Used to de-duplicate MOs found in several overlapping dumps. Each entry is
+ * a 128 bit hash of the className and fdn, the MO's timestamp and the id of
+ * the file it was found in. Entries live in an open addressing table in a
+ * memory mapped temporary file, so the heap stays flat and the operating
+ * system pages the table out to disk when it outgrows memory. The file
+ * should therefore be on a disk rather than on a memory backed temporary
+ * directory. When the table is doubled the old mappings are released
+ * explicitly, since a flat heap may not trigger the garbage collection that
+ * would otherwise release them.
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+public class FdnIndex {
+
+    /**
+     * Bytes per entry: 2 hash longs, the timestamp and the file id + 1.
+     * A file id of 0 marks an empty slot.
+     */
+    static final int SLOT_SIZE = 32;
+
+    /**
+     * Slots per mapped segment. 1GB segments.
+     */
+    static final int SEGMENT_SLOTS = 1 << 25;
+
+    /**
+     * Initial number of slots.
+     */
+    static final long INITIAL_CAPACITY = 1 << 16;
+
+    /**
+     * The table is doubled when it is more than this full.
+     */
+    static final double MAX_LOAD = 0.6;
+
+    /**
+     * Directory for the table file.
+     */
+    private final File directory;
+
+    private File tableFile;
+
+    private RandomAccessFile tableAccess;
+
+    private MappedByteBuffer[] segments;
+
+    private long capacity;
+
+    private long size = 0;
+
+    /**
+     * File paths by file id.
+     */
+    private final List<String> files = new ArrayList<String>();
+
+    private final Map<String, Integer> fileIds = new HashMap<String, Integer>();
+
+    /**
+     * @param directory Directory for the table file, preferably on disk. 
+     *                  The system temporary directory when null.
+     * @throws IOException
+     */
+    public FdnIndex(File directory) throws IOException {
+        this.directory = directory;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Id of the given file. Ids are assigned on first use.
+     *
+     * @param path
+     * @return int
+     */
+    public synchronized int fileId(String path){
+        Integer id = fileIds.get(path);
+        if(id == null){
+            id = files.size();
+            files.add(path);
+            fileIds.put(path, id);
+        }
+        return id;
+    }
+
+    /**
+     * Record an MO instance. The entry is replaced when the instance is newer
+     * than the one already recorded.
+     *
+     * @param className
+     * @param fdn
+     * @param timestamp
+     * @param fileId
+     * @throws IOException
+     */
+    public synchronized void update(String className, String fdn,
+            long timestamp, int fileId) throws IOException {
+        if((size + 1) > capacity * MAX_LOAD) resize(capacity * 2);
+
+        long h1 = hash1(className, fdn);
+        long h2 = hash2(className, fdn);
+        long slot = find(h1, h2);
+
+        int storedId = getInt(slot, 24);
+        if(storedId == 0){
+            putLong(slot, 0, h1);
+            putLong(slot, 8, h2);
+            putLong(slot, 16, timestamp);
+            putInt(slot, 24, fileId + 1);
+            size++;
+            return;
+        }
+
+        if(isNewer(timestamp, fileId, getLong(slot, 16), storedId - 1)){
+            putLong(slot, 16, timestamp);
+            putInt(slot, 24, fileId + 1);
+        }
+    }
+
+    /**
+     * Whether the given MO instance is the newest recorded for its fdn.
+     * Instances that were never recorded are reported as newest.
+     *
+     * @param className
+     * @param fdn
+     * @param timestamp
+     * @param fileId
+     * @return boolean
+     */
+    public synchronized boolean isLatest(String className, String fdn,
+            long timestamp, int fileId){
+        long slot = find(hash1(className, fdn), hash2(className, fdn));
+        int storedId = getInt(slot, 24);
+        if(storedId == 0) return true;
+
+        return storedId - 1 == fileId && getLong(slot, 16) == timestamp;
+    }
+
+    /**
+     * Number of distinct fdns recorded.
+     *
+     * @return long
+     */
+    public synchronized long size(){
+        return size;
+    }
+
+    /**
+     * Release the table file.
+     */
+    public synchronized void close(){
+        unmap(segments);
+        segments = null;
+        try{
+            tableAccess.close();
+        }catch(IOException e){
+            //Nothing to do
+        }
+        tableFile.delete();
+    }
+
+    /**
+     * Newer timestamps win. Ties go to the file whose path sorts last.
+     */
+    private boolean isNewer(long timestamp, int fileId, long storedTimestamp,
+            int storedFileId){
+        if(timestamp != storedTimestamp) return timestamp > storedTimestamp;
+        return files.get(fileId).compareTo(files.get(storedFileId)) > 0;
+    }
+
+    /**
+     * Slot holding the given hash or the empty slot where it belongs.
+     */
+    private long find(long h1, long h2){
+        long mask = capacity - 1;
+        long slot = h1 & mask;
+        while(true){
+            if(getInt(slot, 24) == 0) return slot;
+            if(getLong(slot, 0) == h1 && getLong(slot, 8) == h2) return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void allocate(long slots) throws IOException {
+        tableFile = File.createTempFile(".fdnindex", ".bin", directory);
+        tableFile.deleteOnExit();
+        tableAccess = new RandomAccessFile(tableFile, "rw");
+        tableAccess.setLength(slots * SLOT_SIZE);
+
+        int segmentCount = (int) ((slots + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS);
+        segments = new MappedByteBuffer[segmentCount];
+        for(int i = 0; i < segmentCount; i++){
+            long start = (long) i * SEGMENT_SLOTS * SLOT_SIZE;
+            long length = Math.min((long) SEGMENT_SLOTS * SLOT_SIZE,
+                    slots * SLOT_SIZE - start);
+            segments[i] = tableAccess.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, start, length);
+        }
+        capacity = slots;
+    }
+
+    private void resize(long slots) throws IOException {
+        MappedByteBuffer[] oldSegments = segments;
+        long oldCapacity = capacity;
+        File oldFile = tableFile;
+        RandomAccessFile oldAccess = tableAccess;
+
+        allocate(slots);
+
+        for(long slot = 0; slot < oldCapacity; slot++){
+            MappedByteBuffer segment = oldSegments[(int) (slot / SEGMENT_SLOTS)];
+            int offset = (int) (slot % SEGMENT_SLOTS) * SLOT_SIZE;
+            int storedId = segment.getInt(offset + 24);
+            if(storedId == 0) continue;
+
+            long h1 = segment.getLong(offset);
+            long h2 = segment.getLong(offset + 8);
+            long target = find(h1, h2);
+            putLong(target, 0, h1);
+            putLong(target, 8, h2);
+            putLong(target, 16, segment.getLong(offset + 16));
+            putInt(target, 24, storedId);
+        }
+
+        unmap(oldSegments);
+        oldAccess.close();
+        oldFile.delete();
+    }
+
+    /**
+     * Release mapped segments now rather than when they are garbage 
+     * collected. The segments must not be used afterwards. Where the JVM 
+     * offers no way to do so they are left to the garbage collector.
+     *
+     * @param mapped
+     */
+    private static void unmap(MappedByteBuffer[] mapped){
+        if(mapped == null) return;
+        for(MappedByteBuffer buffer : mapped){
+            try{
+                //Java 9 and later
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            }catch(Exception e){
+                try{
+                    //Java 8
+                    Method cleaner = buffer.getClass().getMethod("cleaner");
+                    cleaner.setAccessible(true);
+                    Object c = cleaner.invoke(buffer);
+                    c.getClass().getMethod("clean").invoke(c);
+                }catch(Exception e8){
+                    //Left to the garbage collector
+                }
+            }
+        }
+    }
+
+    private long getLong(long slot, int field){
+        return segments[(int) (slot / SEGMENT_SLOTS)]
+                .getLong((int) (slot % SEGMENT_SLOTS) * SLOT_SIZE + field);
+    }
+
+    private int getInt(long slot, int field){
+        return segments[(int) (slot / SEGMENT_SLOTS)]
+                .getInt((int) (slot % SEGMENT_SLOTS) * SLOT_SIZE + field);
+    }
+
+    private void putLong(long slot, int field, long value){
+        segments[(int) (slot / SEGMENT_SLOTS)]
+                .putLong((int) (slot % SEGMENT_SLOTS) * SLOT_SIZE + field, value);
+    }
+
+    private void putInt(long slot, int field, int value){
+        segments[(int) (slot / SEGMENT_SLOTS)]
+                .putInt((int) (slot % SEGMENT_SLOTS) * SLOT_SIZE + field, value);
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the className and fdn.
+     */
+    static long hash1(String className, String fdn){
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < className.length(); i++){
+            h = (h ^ className.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ '|') * 0x100000001b3L;
+        for(int i = 0; i < fdn.length(); i++){
+            h = (h ^ fdn.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Second, independent 64 bit hash of the className and fdn.
+     */
+    static long hash2(String className, String fdn){
+        long h = 0x9e3779b97f4a7c15L;
+        for(int i = 0; i < className.length(); i++){
+            h = h * 0x5bd1e9955bd1e995L + className.charAt(i);
+        }
+        h = h * 0x5bd1e9955bd1e995L + '|';
+        for(int i = 0; i < fdn.length(); i++){
+            h = h * 0x5bd1e9955bd1e995L + fdn.charAt(i);
+        }
+        return mix(h + fdn.length());
+    }
+
+    /**
+     * SplitMix64 finaliser.
+     */
+    private static long mix(long z){
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
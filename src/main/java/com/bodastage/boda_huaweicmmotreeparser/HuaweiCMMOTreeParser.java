@@ -6,19 +6,39 @@
 package com.bodastage.boda_huaweicmmotreeparser;
 
 import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
+import java.util.zip.GZIPInputStream;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
@@ -68,8 +88,162 @@ public class HuaweiCMMOTreeParser {
      * 
      * @since 1.0.0
      */
-    private Map<String, PrintWriter> moiPrintWriters 
-            = new LinkedHashMap<String, PrintWriter>();
+    private Map<String, MOCsvWriter> moiPrintWriters 
+            = new LinkedHashMap<String, MOCsvWriter>();
+    
+    /**
+     * Output file rotation and sharding.
+     * 
+     * @since 2.1.0
+     */
+    private OutputRotation outputRotation = OutputRotation.NONE;
+    
+    /**
+     * Index of the newest dump holding each fdn. Only set when 
+     * de-duplicating MOs across dumps.
+     * 
+     * @since 2.1.0
+     */
+    private FdnIndex fdnIndex = null;
+    
+    /**
+     * Fingerprints of the files parsed in the previous run. Only set for 
+     * incremental runs.
+     * 
+     * @since 2.1.0
+     */
+    private ParseManifest parseManifest = null;
+    
+    /**
+     * Network elements to parse. All are parsed when not set.
+     * 
+     * @since 2.1.0
+     */
+    private NeFilter neFilter = null;
+    
+    /**
+     * Input file or output directory name for standard input or output.
+     * 
+     * @since 2.1.0
+     */
+    public static final String STDIO = "-";
+    
+    /**
+     * FILENAME written for dumps read from standard input.
+     * 
+     * @since 2.1.0
+     */
+    static final String STDIN_NAME = "stdin";
+    
+    /**
+     * Shared stream for the multiplexed output. When set, rows of all 
+     * classNames are written to it as tagged records instead of to csv files.
+     * 
+     * @since 2.1.0
+     */
+    private PrintWriter multiplexedOutput = null;
+    
+    /**
+     * Where progress messages go. Standard error when the csv data goes to 
+     * standard output.
+     * 
+     * @since 2.1.0
+     */
+    private PrintStream progress = System.out;
+    
+    /**
+     * Statistics of the values written per className column. Only collected
+     * when set.
+     * 
+     * @since 2.1.0
+     */
+    private ColumnStatistics columnStats = null;
+    
+    /**
+     * Copy of standard input, when the dump read from it is parsed twice.
+     * 
+     * @since 2.1.0
+     */
+    private File stdinSpool = null;
+    
+    /**
+     * Number of rows a className needs to get a specialised row encoder.
+     * 
+     * @since 2.1.0
+     */
+    static final int ROW_ENCODER_THRESHOLD = 64;
+    
+    /**
+     * Maximum number of classNames with a specialised row encoder.
+     * 
+     * @since 2.1.0
+     */
+    static final int MAX_ROW_ENCODERS = 50;
+    
+    /**
+     * Row encoder of each className.
+     * 
+     * @since 2.1.0
+     */
+    private final Map<String, RowEncoder> rowEncoders 
+            = new HashMap<String, RowEncoder>();
+    
+    /**
+     * MOs per className, counted in the parameter extraction pass, or rows
+     * written when there is no such pass.
+     * 
+     * @since 2.1.0
+     */
+    private final Map<String, Integer> classRowCounts 
+            = new HashMap<String, Integer>();
+    
+    /**
+     * The classNames with the most MOs, chosen after the parameter 
+     * extraction pass. Null when there was no such pass.
+     * 
+     * @since 2.1.0
+     */
+    private Set<String> hotClasses = null;
+    
+    /**
+     * Number of specialised row encoders built.
+     * 
+     * @since 2.1.0
+     */
+    private int specialisedEncoders = 0;
+    
+    /**
+     * Attribute holding the export time of an MO. When not set or not 
+     * present the modification time of the dump is used.
+     * 
+     * @since 2.1.0
+     */
+    private String dedupeTimeAttr = null;
+    
+    /**
+     * Export time formats tried on the dedupeTimeAttr value.
+     * 
+     * @since 2.1.0
+     */
+    private final SimpleDateFormat[] exportTimeFormats = {
+        new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"),
+        new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss"),
+        new SimpleDateFormat("yyyyMMddHHmmss")
+    };
+    
+    /**
+     * Id of the file being parsed in the fdn index.
+     * 
+     * @since 2.1.0
+     */
+    private int fileId = 0;
+    
+    /**
+     * Modification time of the file being parsed.
+     * 
+     * @since 2.1.0
+     */
+    private long fileTime = 0;
     
     
     /**
@@ -101,6 +275,20 @@ public class HuaweiCMMOTreeParser {
      */
     private String dataSource;
     
+    /**
+     * Files to parse instead of the data source.
+     * 
+     * @since 2.1.0
+     */
+    private List<String> inputFiles = null;
+    
+    /**
+     * File written by the parameter extraction only mode.
+     * 
+     * @since 2.1.0
+     */
+    public static final String PARAMETERS_FILE = "parameters_list.csv";
+    
     /**
      * Tag data.
      *
@@ -177,22 +365,14 @@ public class HuaweiCMMOTreeParser {
             = new LinkedHashMap<String, String>();
     
     /**
-     * The holds the parameters and corresponding values for the moi tag  
-     * currently being processed.
+     * MO frames indexed by depth. The frame at index classDepth-1 holds the
+     * className and attributes of the MO currently open at that depth. Frames
+     * are reused, so memory depends on the nesting depth and not on the 
+     * number of classes in the dump.
      * 
-     * @since 1.0.0
-     * @version 1.0.0
+     * @since 2.1.0
      */
-    private Map<String,LinkedHashMap<String,String>> classNameAttrsMap 
-            = new LinkedHashMap<String, LinkedHashMap<String,String>>();
-    
-    /**
-     * ClassName tag stack. 
-     * 
-     * @version 1.0.0
-     * @since 1.0.0
-     */
-    private Stack classNameStack = new Stack();
+    private final ArrayList<MOFrame> moFrames = new ArrayList<MOFrame>();
     
     /**
      * Current className MO attribute.
@@ -210,20 +390,96 @@ public class HuaweiCMMOTreeParser {
      */
     private String moAttrName = null;
     
+    /**
+     * StAX factory. Created once per parser instance and reused for every 
+     * file the instance parses.
+     * 
+     * @since 2.1.0
+     */
+    private final XMLInputFactory factory = XMLInputFactory.newInstance();
+    
     /**
      * The parser's entry point.
      * 
      * @param filename 
      */
     public void parseFile(String filename) 
-    throws XMLStreamException, FileNotFoundException, UnsupportedEncodingException
+    throws XMLStreamException, IOException
     {
-            XMLInputFactory factory = XMLInputFactory.newInstance();
-
-            XMLEventReader eventReader = factory.createXMLEventReader(
-                    new FileReader(filename));
-            baseFileName = getFileBasename(filename);
-
+            if(fdnIndex != null){
+                File f = new File(filename);
+                fileId = fdnIndex.fileId(f.getAbsolutePath());
+                fileTime = f.lastModified();
+            }
+            
+            parseStream(new FileInputStream(filename), getFileBasename(filename));
+    }
+    
+    /**
+     * Parse a dump from a stream. Gzip compressed dumps are detected and 
+     * decompressed. The stream is closed.
+     * 
+     * @since 2.1.0
+     * @param in
+     * @param name The FILENAME written for the dump's rows
+     * @throws XMLStreamException
+     * @throws IOException 
+     */
+    public void parseStream(InputStream in, String name) 
+            throws XMLStreamException, IOException {
+            InputStream input = openInput(in);
+            
+            //Drop the network elements that are not selected before they
+            //reach the XML parser
+            if(neFilter != null){
+                input = new NeFilterInputStream(input, neFilter, 
+                        Charset.defaultCharset());
+            }
+            
+            Reader reader = new InputStreamReader(input, Charset.defaultCharset());
+            XMLEventReader eventReader = factory.createXMLEventReader(reader);
+            baseFileName = name;
+            
+            try{
+                parseEvents(eventReader);
+            }finally{
+                eventReader.close();
+                reader.close();
+            }
+    }
+    
+    /**
+     * Buffer a stream and decompress it when it starts with the gzip magic 
+     * number.
+     * 
+     * @since 2.1.0
+     * @param in
+     * @return InputStream
+     * @throws IOException 
+     */
+    static InputStream openInput(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+        buffered.mark(2);
+        int b1 = buffered.read();
+        int b2 = buffered.read();
+        buffered.reset();
+        
+        if(b1 == 0x1f && b2 == 0x8b){
+            return new GZIPInputStream(buffered, 1 << 16);
+        }
+        return buffered;
+    }
+    
+    /**
+     * Handle the events of a dump.
+     * 
+     * @since 2.1.0
+     * @param eventReader
+     * @throws XMLStreamException
+     * @throws IOException 
+     */
+    private void parseEvents(XMLEventReader eventReader) 
+            throws XMLStreamException, IOException {
             while (eventReader.hasNext()) {
                 XMLEvent event = eventReader.nextEvent();
                 
@@ -257,6 +513,41 @@ public class HuaweiCMMOTreeParser {
         classDepth = 0;
         className = null;
     }
+    
+    /**
+     * Reset the parser so that the same instance can be reused for another 
+     * job. The columns loaded from the parameter file are kept.
+     * 
+     * @since 2.1.0
+     */
+    public void resetParser(){
+        closeMOPWMap();
+        resetVariables();
+        moFrames.clear();
+        rowEncoders.clear();
+        classRowCounts.clear();
+        hotClasses = null;
+        specialisedEncoders = 0;
+        moiParameterValueMap = new LinkedHashMap<String, String>();
+        tagData = "";
+        nodeName = null;
+        moAttrName = null;
+        if(columnStats != null) columnStats.clear();
+        
+        if(parameterFile == null){
+            moColumns = new LinkedHashMap<String, Stack>();
+        }
+        
+        //The fdn index is built in the parameter extraction pass. The 
+        //multiplexed output needs no extraction pass.
+        if(multiplexedOutput != null && fdnIndex == null){
+            parserState = ParserStates.EXTRACTING_VALUES;
+        }else if(parameterFile == null || fdnIndex != null){
+            parserState = ParserStates.EXTRACTING_PARAMETERS;
+        }else{
+            parserState = ParserStates.EXTRACTING_VALUES;
+        }
+    }
 
 
     
@@ -278,6 +569,7 @@ public class HuaweiCMMOTreeParser {
         Iterator<Attribute> attributes = startElement.getAttributes();
         if(qName.equals("MO")){
             classDepth++;
+            String fdn = null;
 
             while (attributes.hasNext()) {
                 Attribute attribute = attributes.next();
@@ -285,10 +577,20 @@ public class HuaweiCMMOTreeParser {
                 String attrValue =  attribute.getValue();
                 if (attrName.equals("className")) {
                     className = attrValue;
-                    LinkedHashMap<String,String> Lhm = new LinkedHashMap<String,String>();
-                    classNameAttrsMap.put(className,Lhm);    
                 }
+                if (attrName.equals("fdn")) {
+                    fdn = attrValue;
+                }
+            }
+            
+            if(moFrames.size() < classDepth){
+                moFrames.add(new MOFrame());
             }
+            MOFrame frame = moFrames.get(classDepth - 1);
+            frame.className = className;
+            frame.fdn = fdn;
+            frame.attrs.clear();
+            moiParameterValueMap = frame.attrs;
         }
         
         //attr
@@ -335,43 +637,60 @@ public class HuaweiCMMOTreeParser {
      * @since 1.1.0
      * @version 1.0.0
      * @throws XMLStreamException
-     * @throws FileNotFoundException
-     * @throws UnsupportedEncodingException
+     * @throws IOException
      */
     public void processFileOrDirectory()
-            throws XMLStreamException, FileNotFoundException, UnsupportedEncodingException {
+            throws XMLStreamException, IOException {
         //this.dataFILe;
-        Path file = Paths.get(this.dataSource);
-        boolean isRegularExecutableFile = Files.isRegularFile(file)
-                & Files.isReadable(file);
+        boolean isRegularExecutableFile = false;
+        boolean isReadableDirectory = false;
+        
+        if(inputFiles == null && STDIO.equals(this.dataSource)){
+            processStdin();
+            return;
+        }
+        
+        if(inputFiles == null){
+            Path file = Paths.get(this.dataSource);
+            isRegularExecutableFile = Files.isRegularFile(file)
+                    & Files.isReadable(file);
 
-        boolean isReadableDirectory = Files.isDirectory(file)
-                & Files.isReadable(file);
+            isReadableDirectory = Files.isDirectory(file)
+                    & Files.isReadable(file);
+        }
 
         if (isRegularExecutableFile) {
             this.setFileName(this.dataSource);
             baseFileName =  getFileBasename(this.dataFile);
             if( parserState == ParserStates.EXTRACTING_PARAMETERS){
-                System.out.print("Extracting parameters from " + this.baseFileName + "...");
+                progress.print("Extracting parameters from " + this.baseFileName + "...");
             }else{
-                System.out.print("Parsing " + this.baseFileName + "...");
+                progress.print("Parsing " + this.baseFileName + "...");
             }
-            this.parseFile(this.dataSource);
+            this.parseOrReuseFile(this.dataSource);
             
             if( parserState == ParserStates.EXTRACTING_PARAMETERS){
-                 System.out.println("Done.");
+                 progress.println("Done.");
             }else{
-                System.out.println("Done.");
+                progress.println("Done.");
                 //System.out.println(this.baseFileName + " successfully parsed.\n");
             }
         }
 
-        if (isReadableDirectory) {
+        if (isReadableDirectory || inputFiles != null) {
 
-            File directory = new File(this.dataSource);
+            File[] fList;
+            if(inputFiles != null){
+                fList = new File[inputFiles.size()];
+                for(int i = 0; i < fList.length; i++){
+                    fList[i] = new File(inputFiles.get(i));
+                }
+            }else{
+                File directory = new File(this.dataSource);
 
-            //get all the files from a directory
-            File[] fList = directory.listFiles();
+                //get all the files from a directory
+                fList = directory.listFiles();
+            }
 
             for (File f : fList) {
                 this.setFileName(f.getAbsolutePath());
@@ -380,30 +699,182 @@ public class HuaweiCMMOTreeParser {
                     //@TODO: Duplicate call in parseFile. Remove!
                     baseFileName =  getFileBasename(this.dataFile);
                     if( parserState == ParserStates.EXTRACTING_PARAMETERS){
-                        System.out.print("Extracting parameters from " + this.baseFileName + "...");
+                        progress.print("Extracting parameters from " + this.baseFileName + "...");
                     }else{
-                        System.out.print("Parsing " + this.baseFileName + "...");
+                        progress.print("Parsing " + this.baseFileName + "...");
                     }
                     
                     //Parse
-                    this.parseFile(f.getAbsolutePath());
+                    this.parseOrReuseFile(f.getAbsolutePath());
                     if( parserState == ParserStates.EXTRACTING_PARAMETERS){
-                         System.out.println("Done.");
+                         progress.println("Done.");
                     }else{
-                        System.out.println("Done.");
+                        progress.println("Done.");
                         //System.out.println(this.baseFileName + " successfully parsed.\n");
                     }
                    
                 } catch (Exception e) {
-                    System.out.println(e.getMessage());
-                    System.out.println("Skipping file: " + this.baseFileName + "\n");
+                    progress.println(e.getMessage());
+                    progress.println("Skipping file: " + this.baseFileName + "\n");
                 }
             }
         }
     }
     
+    /**
+     * Parse the dump on standard input, or its copy when it is parsed a 
+     * second time.
+     * 
+     * @since 2.1.0
+     * @throws XMLStreamException
+     * @throws IOException 
+     */
+    private void processStdin() throws XMLStreamException, IOException {
+        if( parserState == ParserStates.EXTRACTING_PARAMETERS){
+            progress.print("Extracting parameters from " + STDIN_NAME + "...");
+        }else{
+            progress.print("Parsing " + STDIN_NAME + "...");
+        }
+        
+        if(stdinSpool != null){
+            parseStream(new FileInputStream(stdinSpool), STDIN_NAME);
+        }else{
+            parseStream(System.in, STDIN_NAME);
+        }
+        progress.println("Done.");
+    }
+    
+    /**
+     * Copy standard input to a temporary file so that it can be read in both
+     * passes. The copy is decompressed.
+     * 
+     * @since 2.1.0
+     * @throws IOException 
+     */
+    private void spoolStdin() throws IOException {
+        stdinSpool = File.createTempFile("stdin", ".xml");
+        stdinSpool.deleteOnExit();
+        
+        InputStream in = openInput(System.in);
+        OutputStream out = new FileOutputStream(stdinSpool);
+        try{
+            byte[] buffer = new byte[1 << 16];
+            for(int n; (n = in.read(buffer)) > 0; ){
+                out.write(buffer, 0, n);
+            }
+        }finally{
+            out.close();
+        }
+    }
+    
+    /**
+     * Parse a file, or reuse the columns and rows it produced in the previous
+     * run when it has not changed.
+     * 
+     * @since 2.1.0
+     * @param filename
+     */
+    private void parseOrReuseFile(String filename) 
+            throws XMLStreamException, IOException {
+        if(parseManifest == null){
+            parseFile(filename);
+            return;
+        }
+        
+        File f = new File(filename);
+        ParseManifest.Entry entry = parseManifest.entryFor(f);
+        ParseManifest.Entry previous = parseManifest.unchanged(f);
+        if(previous != null && parserState == ParserStates.EXTRACTING_VALUES){
+            //The rows of a className left out of the columns are parsed
+            //again rather than lost
+            for(String c : previous.rows.keySet()){
+                if(!moColumns.containsKey(c)){
+                    previous = null;
+                    break;
+                }
+            }
+        }
+        if(previous != null) progress.print("unchanged...");
+        
+        if(parserState == ParserStates.EXTRACTING_PARAMETERS){
+            if(previous != null){
+                entry.columns = previous.columns;
+            }else{
+                //Collect this file's columns on their own
+                Map<String, Stack> allColumns = moColumns;
+                moColumns = new LinkedHashMap<String, Stack>();
+                try{
+                    parseFile(filename);
+                    entry.columns = moColumns;
+                }finally{
+                    moColumns = allColumns;
+                }
+            }
+            mergeColumns(moColumns, entry.columns);
+            return;
+        }
+        
+        Map<String, Long> rowsBefore = new HashMap<String, Long>();
+        for(Map.Entry<String, MOCsvWriter> me : moiPrintWriters.entrySet()){
+            rowsBefore.put(me.getKey(), me.getValue().getRowCount());
+        }
+        
+        //A file that fails is left out of the manifest and parsed again by
+        //the next run
+        boolean done = false;
+        try{
+            if(previous != null){
+                if(entry.columns.isEmpty()) entry.columns = previous.columns;
+                parseManifest.copyRows(previous, this);
+            }else{
+                parseFile(filename);
+            }
+            done = true;
+        }finally{
+            if(!done) parseManifest.forget(f);
+        }
+        
+        entry.rows.clear();
+        for(Map.Entry<String, MOCsvWriter> me : moiPrintWriters.entrySet()){
+            Long before = rowsBefore.get(me.getKey());
+            long first = before == null ? 0 : before;
+            long count = me.getValue().getRowCount() - first;
+            if(count > 0) entry.rows.put(me.getKey(), new long[]{first, count});
+        }
+        
+        //Without the extraction pass the columns are those of the parameter
+        //file
+        if(entry.columns.isEmpty()){
+            for(String c : entry.rows.keySet()){
+                entry.columns.put(c, moColumns.get(c));
+            }
+        }
+    }
+    
+    /**
+     * Add the columns in from that are not yet in into.
+     * 
+     * @since 2.1.0
+     * @param into
+     * @param from 
+     */
+    static void mergeColumns(Map<String, Stack> into, Map<String, Stack> from){
+        Iterator<Map.Entry<String, Stack>> iter = from.entrySet().iterator();
+        while(iter.hasNext()){
+            Map.Entry<String, Stack> me = iter.next();
+            Stack merged = into.get(me.getKey());
+            if(merged == null){
+                merged = new Stack();
+                into.put(me.getKey(), merged);
+            }
+            for(Object p : me.getValue()){
+                if(!merged.contains(p)) merged.push(p);
+            }
+        }
+    }
+    
     public void endELementEvent(XMLEvent xmlEvent)
-            throws FileNotFoundException, UnsupportedEncodingException {
+            throws IOException {
         EndElement endElement = xmlEvent.asEndElement();
         String prefix = endElement.getName().getPrefix();
         String qName = endElement.getName().getLocalPart();
@@ -412,9 +883,7 @@ public class HuaweiCMMOTreeParser {
 
         if(qName.equals("attr")){
             
-            LinkedHashMap<String,String> Lhm = classNameAttrsMap.get(className);
-            Lhm.put(moAttrName, tagData);
-            classNameAttrsMap.put(className,Lhm);
+            moFrames.get(classDepth - 1).attrs.put(moAttrName, tagData);
             
             if( classDepth == 1 && moAttrName.equals("name")){
                 this.nodeName = tagData;
@@ -425,95 +894,120 @@ public class HuaweiCMMOTreeParser {
         }
         
         if(qName.equals("MO")){
-            classDepth--;
+            MOFrame frame = moFrames.get(classDepth - 1);
+            className = frame.className;
+            moiParameterValueMap = frame.attrs;
             
-            if(parameterFile == null && parserState == ParserStates.EXTRACTING_PARAMETERS){
-                Stack columns = new Stack();
-                if(!moColumns.containsKey(className)){
-                    moColumns.put(className,new Stack());
-                }
-                columns = moColumns.get(className);
-
-                moiParameterValueMap = classNameAttrsMap.get(className);
+            try{
+                if(fdnIndex != null && !isLatestInstance(frame)) return;
+                endMOElement();
+            }finally{
+                frame.attrs.clear();
+                classDepth--;
                 
-                Iterator<Map.Entry<String, String>> iter 
-                            = moiParameterValueMap.entrySet().iterator();
-                while (iter.hasNext()) {
-                    Map.Entry<String, String> me = iter.next();
-                    if( ! columns.contains(me.getKey())){
-                        columns.push(me.getKey());
-                    }       
+                //Restore the parent's context
+                if(classDepth > 0){
+                    MOFrame parent = moFrames.get(classDepth - 1);
+                    className = parent.className;
+                    moiParameterValueMap = parent.attrs;
                 }
-                
-                moColumns.put(className, columns);
-
+            }
+        }
+    }
+    
+    /**
+     * Record the MO in the fdn index when extracting parameters. When 
+     * extracting values, check whether this is the newest instance of the MO.
+     * 
+     * @since 2.1.0
+     * @param frame
+     * @return boolean false if a newer dump holds the MO
+     */
+    private boolean isLatestInstance(MOFrame frame) throws IOException {
+        String moFdn = frame.fdn;
+        if(moFdn == null) moFdn = frame.attrs.get("fdn");
+        if(moFdn == null || moFdn.isEmpty()) return true;
+        
+        long timestamp = fileTime;
+        if(dedupeTimeAttr != null){
+            String exportTime = frame.attrs.get(dedupeTimeAttr);
+            if(exportTime != null) timestamp = parseExportTime(exportTime);
+        }
+        
+        if(parserState == ParserStates.EXTRACTING_PARAMETERS){
+            fdnIndex.update(frame.className, moFdn, timestamp, fileId);
+            return true;
+        }
+        
+        return fdnIndex.isLatest(frame.className, moFdn, timestamp, fileId);
+    }
+    
+    /**
+     * Convert an export time attribute value to milliseconds. Falls back to
+     * the modification time of the file.
+     * 
+     * @since 2.1.0
+     */
+    private long parseExportTime(String value){
+        for(SimpleDateFormat format : exportTimeFormats){
+            try{
+                return format.parse(value.trim()).getTime();
+            }catch(java.text.ParseException e){
+                //Try the next format
+            }
+        }
+        return fileTime;
+    }
+    
+    /**
+     * Handle the end of the MO in the current frame. Collects the columns
+     * when extracting parameters and writes the MO's row when extracting
+     * values.
+     * 
+     * @since 2.1.0
+     */
+    private void endMOElement() throws FileNotFoundException {
+        if(parameterFile == null && parserState == ParserStates.EXTRACTING_PARAMETERS){
+            addColumns();
+        }
+        if(parserState == ParserStates.EXTRACTING_PARAMETERS){
+            countRow(className);
+        }
+        
+        if( parserState == ParserStates.EXTRACTING_VALUES){
+            //If MO is not in parameterFile, continue
+            if(!moColumns.containsKey(className) && parameterFile != null){
+                return;
             }
             
-            if( parserState == ParserStates.EXTRACTING_VALUES){
-                String paramNames = "FILENAME,NODENAME";
-                String paramValues = baseFileName + "," + toCSVFormat(this.nodeName);
-                
-                //If MO is not in parameterFile, continue
-                if(!moColumns.containsKey(className) && parameterFile != null){
-                    moiParameterValueMap.clear();
-                    return;
-                }
-                
-                //Create MO.csv file if it does not exist yet 
-                //...and add the column headers
-                if(!moiPrintWriters.containsKey(className)){
-                    String moiFile = outputDirectory + File.separatorChar + className +  ".csv";
-                    moiPrintWriters.put(className, new PrintWriter(moiFile));
-                    
-                    //the MO parameters from moColumns
-                    String pName = paramNames;
-                    Stack columns = moColumns.get(className);
-
-                    //Write headers
-                    for(int i =0; i < columns.size(); i++){
-                        String p = columns.get(i).toString();
-
-                        //Skip default paramters
-                        if( p.toLowerCase().equals("filename") || 
-                            p.toLowerCase().equals("datetime") ||
-                            p.toLowerCase().equals("nodename")
-                            ) continue;
-                        pName += "," + columns.get(i);
-                    }
-                    moiPrintWriters.get(className).println(pName);
+            //Single pass to the multiplexed output. Columns are added as 
+            //they are found and announced with a new header record.
+            if(parameterFile == null && multiplexedOutput != null && addColumns()){
+                MOCsvWriter writer = moiPrintWriters.get(className);
+                if(writer != null){
+                    ((MultiplexedWriter) writer).setHeader(
+                            RowEncoder.headerFor(moColumns.get(className)));
                 }
-                
-                //Wite the values to 
-                Stack moiAttributes = moColumns.get(className);
-                moiParameterValueMap = classNameAttrsMap.get(className);
-                //System.out.println(moiParameterValueMap.toString());
-                for(int i = 0; i< moiAttributes.size(); i++){
-                    String moiName = moiAttributes.get(i).toString();
-
-                    //Skip default paramters
-                     if( moiName.toLowerCase().equals("filename") || 
-                         moiName.toLowerCase().equals("datetime") ||
-                         moiName.toLowerCase().equals("nodename")
-                         ) continue;
-
-                    if( moiParameterValueMap.containsKey(moiName) ){
-                        paramValues += "," + toCSVFormat(moiParameterValueMap.get(moiName));
-                    }else{
-                        paramValues += ",";
-                    }  
-                }
-
-                PrintWriter pw = moiPrintWriters.get(className);
-                pw.println(paramValues);
-                
-                moiParameterValueMap.clear();
-                classNameAttrsMap.get(className).clear();
-                return;
             }
             
+            //Create MO.csv file if it does not exist yet 
+            //...and add the column headers
+            MOCsvWriter pw = moiPrintWriters.get(className);
+            if(pw == null){
+                pw = createMOPrintWriter(className);
+            }
+            
+            //Wite the values to 
+            Stack moiAttributes = moColumns.get(className);
+            if(columnStats != null){
+                columnStats.add(className, moiAttributes, moiParameterValueMap);
+            }
+            
+            RowEncoder encoder = getRowEncoder(className, moiAttributes);
+            pw.println(encoder.encode(baseFileName, this.nodeName, 
+                    moiParameterValueMap), this.nodeName);
         }
-        
-        
+    
         //This is section is from previous implementation
 //        if(qName.equals("MO")){
 //            classDepth--;
@@ -565,6 +1059,150 @@ public class HuaweiCMMOTreeParser {
     
 
     
+    /**
+     * Add the attributes of the current MO that are not yet columns of its 
+     * className.
+     * 
+     * @since 2.1.0
+     * @return boolean Whether columns were added
+     */
+    private boolean addColumns(){
+        Stack columns = moColumns.get(className);
+        if(columns == null){
+            columns = new Stack();
+            moColumns.put(className, columns);
+        }
+        
+        int count = columns.size();
+        Iterator<Map.Entry<String, String>> iter 
+                    = moiParameterValueMap.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, String> me = iter.next();
+            if( ! columns.contains(me.getKey())){
+                columns.push(me.getKey());
+            }       
+        }
+        return columns.size() != count;
+    }
+    
+    /**
+     * Get the row encoder of a className. A new encoder is built when the
+     * className's columns changed.
+     * 
+     * The hot classNames get a specialised encoder: after the parameter 
+     * extraction pass the MAX_ROW_ENCODERS classNames with the most MOs, 
+     * otherwise the first classNames to reach ROW_ENCODER_THRESHOLD rows. 
+     * The others use the generic encoder.
+     * 
+     * @since 2.1.0
+     * @return RowEncoder
+     */
+    private RowEncoder getRowEncoder(String className, Stack columns){
+        RowEncoder encoder = rowEncoders.get(className);
+        boolean specialised = encoder instanceof SpecialisedRowEncoder;
+        if(specialised && encoder.isValidFor(columns)) return encoder;
+        
+        boolean specialise;
+        if(hotClasses != null){
+            specialise = hotClasses.contains(className);
+        }else{
+            Integer count = classRowCounts.get(className);
+            specialise = count != null && count >= ROW_ENCODER_THRESHOLD;
+            if(!specialise) countRow(className);
+        }
+        specialise = specialise && (specialised || specialisedEncoders < MAX_ROW_ENCODERS);
+        if(encoder != null && encoder.isValidFor(columns) && !specialise) return encoder;
+        
+        if(specialise){
+            if(!specialised) specialisedEncoders++;
+            encoder = new SpecialisedRowEncoder(columns);
+        }else{
+            encoder = new RowEncoder(columns);
+        }
+        rowEncoders.put(className, encoder);
+        return encoder;
+    }
+    
+    /**
+     * Count a row of the className.
+     * 
+     * @since 2.1.0
+     * @return int The rows counted so far
+     */
+    private int countRow(String className){
+        Integer count = classRowCounts.get(className);
+        count = count == null ? 1 : count + 1;
+        classRowCounts.put(className, count);
+        return count;
+    }
+    
+    /**
+     * Choose the MAX_ROW_ENCODERS classNames with the most MOs, of those
+     * with at least ROW_ENCODER_THRESHOLD.
+     * 
+     * @since 2.1.0
+     */
+    private void chooseHotClasses(){
+        List<Map.Entry<String, Integer>> counts 
+                = new ArrayList<Map.Entry<String, Integer>>(classRowCounts.entrySet());
+        Collections.sort(counts, new Comparator<Map.Entry<String, Integer>>(){
+            @Override
+            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b){
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        
+        hotClasses = new HashSet<String>();
+        for(Map.Entry<String, Integer> me : counts){
+            if(hotClasses.size() == MAX_ROW_ENCODERS 
+                    || me.getValue() < ROW_ENCODER_THRESHOLD) break;
+            hotClasses.add(me.getKey());
+        }
+    }
+    
+    /**
+     * Get the csv writer of a className, creating the csv file if needed. 
+     * Returns null when the className is not in the parameter file.
+     * 
+     * @since 2.1.0
+     * @param className
+     * @return MOCsvWriter
+     */
+    MOCsvWriter getMOPrintWriter(String className){
+        if(!moColumns.containsKey(className)) return null;
+        
+        MOCsvWriter pw = moiPrintWriters.get(className);
+        if(pw == null) pw = createMOPrintWriter(className);
+        return pw;
+    }
+    
+    /**
+     * Create the csv file for the given className and write the column 
+     * headers. The writers map may be shared by several parser instances.
+     * 
+     * @since 2.1.0
+     * @param className
+     * @return MOCsvWriter
+     */
+    private MOCsvWriter createMOPrintWriter(String className) {
+        synchronized(moiPrintWriters){
+            MOCsvWriter pw = moiPrintWriters.get(className);
+            if(pw != null) return pw;
+            
+
+            //the MO parameters from moColumns
+            String pName = RowEncoder.headerFor(moColumns.get(className));
+            if(multiplexedOutput != null){
+                pw = new MultiplexedWriter(multiplexedOutput, className, pName);
+            }else{
+                pw = new MOCsvWriter(outputDirectory, className, pName, outputRotation);
+            }
+            
+            moiPrintWriters.put(className, pw);
+            return pw;
+        }
+    }
+    
     /**
      * Parser entry point 
      * 
@@ -572,27 +1210,92 @@ public class HuaweiCMMOTreeParser {
      * @version 1.1.0
      * 
      * @throws XMLStreamException
-     * @throws FileNotFoundException
-     * @throws UnsupportedEncodingException 
+     * @throws IOException 
      */
-    public void parse() throws XMLStreamException, FileNotFoundException, UnsupportedEncodingException {
-        //Extract parameters
-        if (parserState == ParserStates.EXTRACTING_PARAMETERS) {
-            processFileOrDirectory();
+    public void parse() throws XMLStreamException, IOException {
+        if(parseManifest != null){
+            parseManifest.setParameterFile(parameterFile);
+            parseManifest.movePreviousOutputs();
+        }
+        
+        //Standard input can only be read once
+        if(inputFiles == null && STDIO.equals(dataSource) && !extractParametersOnly
+                && parserState == ParserStates.EXTRACTING_PARAMETERS){
+            spoolStdin();
+        }
+        
+        try{
+            //Extract parameters
+            if (parserState == ParserStates.EXTRACTING_PARAMETERS) {
+                processFileOrDirectory();
 
-            parserState = ParserStates.EXTRACTING_VALUES;
+                parserState = ParserStates.EXTRACTING_VALUES;
+                chooseHotClasses();
+            }
+
+            if(extractParametersOnly){
+                writeParameters();
+                parserState = ParserStates.EXTRACTING_DONE;
+                return;
+            }
+
+            //Reset variables
+            resetVariables();
+
+            //Extracting values
+            if (parserState == ParserStates.EXTRACTING_VALUES) {
+                processFileOrDirectory();
+                parserState = ParserStates.EXTRACTING_DONE;
+            }
+
+            closeMOPWMap();
+
+            if(columnStats != null && outputDirectory != null){
+                columnStats.write(outputDirectory);
+            }
+
+            if(parseManifest != null) parseManifest.save();
+        }finally{
+            if(stdinSpool != null){
+                stdinSpool.delete();
+                stdinSpool = null;
+            }
+        }
+    }
+    
+    /**
+     * Write the managed objects and their parameters in the parameter file 
+     * format to parameters_list.csv in the output directory, or to standard 
+     * output when there is no output directory.
+     * 
+     * @since 2.1.0
+     * @throws FileNotFoundException 
+     */
+    public void writeParameters() throws FileNotFoundException {
+        PrintWriter pw;
+        if(outputDirectory == null){
+            pw = new PrintWriter(System.out);
+        }else{
+            pw = new PrintWriter(new File(outputDirectory, PARAMETERS_FILE));
         }
-                
-        //Reset variables
-        resetVariables();
         
-        //Extracting values
-        if (parserState == ParserStates.EXTRACTING_VALUES) {
-            processFileOrDirectory();
-            parserState = ParserStates.EXTRACTING_DONE;
+        Iterator<Map.Entry<String, Stack>> iter = moColumns.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, Stack> me = iter.next();
+            StringBuilder sb = new StringBuilder(me.getKey()).append(':');
+            Stack columns = me.getValue();
+            for(int i = 0; i < columns.size(); i++){
+                if(i > 0) sb.append(',');
+                sb.append(columns.get(i));
+            }
+            pw.println(sb.toString());
         }
         
-        closeMOPWMap();
+        if(outputDirectory == null){
+            pw.flush();
+        }else{
+            pw.close();
+        }
     }
     
     /**
@@ -635,7 +1338,7 @@ public class HuaweiCMMOTreeParser {
         }
 
         
-        System.out.println(s);
+        progress.println(s);
     }
     
     /**
@@ -645,12 +1348,12 @@ public class HuaweiCMMOTreeParser {
      * @version 1.0.0
      */
     public void closeMOPWMap() {
-        Iterator<Map.Entry<String, PrintWriter>> iter
-                = moiPrintWriters.entrySet().iterator();
-        while (iter.hasNext()) {
-            iter.next().getValue().close();
+        try{
+            MOCsvWriter.closeAll(moiPrintWriters, outputDirectory, outputRotation);
+            if(multiplexedOutput != null) multiplexedOutput.flush();
+        }catch(FileNotFoundException e){
+            progress.println(e.getMessage());
         }
-        moiPrintWriters.clear();
     }
     
     /**
@@ -660,19 +1363,10 @@ public class HuaweiCMMOTreeParser {
      * @param s String
      * @return String Formated version of input string
      */
-    public String toCSVFormat(String s) {
-        String csvValue = s;
-
-        //Check if value contains comma
-        if (s.contains(",")) {
-            csvValue = "\"" + s + "\"";
-        }
-
-        if (s.contains("\"")) {
-            csvValue = "\"" + s.replace("\"", "\"\"") + "\"";
-        }
-
-        return csvValue;
+    public static String toCSVFormat(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        RowEncoder.appendCSV(sb, s);
+        return sb.toString();
     }
     
     /**
@@ -714,6 +1408,169 @@ public class HuaweiCMMOTreeParser {
         this.dataSource = dataSource;
     }
     
+    /**
+     * Set the files to parse. Used instead of the data source.
+     * 
+     * @since 2.1.0
+     * @param files
+     */
+    public void setInputFiles(List<String> files){
+        this.inputFiles = files;
+    }
+    
+    /**
+     * Read the files to parse from a file with one path per line.
+     * 
+     * @since 2.1.0
+     * @param filename
+     * @throws IOException 
+     */
+    public void setInputList(String filename) throws IOException {
+        List<String> files = new ArrayList<String>();
+        BufferedReader br = new BufferedReader(new FileReader(filename));
+        try{
+            for(String line; (line = br.readLine()) != null; ) {
+                if(!line.trim().isEmpty()) files.add(line.trim());
+            }
+        }finally{
+            br.close();
+        }
+        setInputFiles(files);
+    }
+    
+    /**
+     * Set the parser state.
+     * 
+     * @since 2.1.0
+     * @param state One of the ParserStates
+     */
+    void setParserState(int state){
+        parserState = state;
+    }
+    
+    /**
+     * Get the columns collected for each className.
+     * 
+     * @since 2.1.0
+     */
+    Map<String, Stack> getMOColumns(){
+        return moColumns;
+    }
+    
+    /**
+     * Set the columns to write for each className.
+     * 
+     * @since 2.1.0
+     */
+    void setMOColumns(Map<String, Stack> columns){
+        moColumns = columns;
+    }
+    
+    /**
+     * Set the map of className csv writers. A thread safe map can be shared 
+     * by several parser instances writing to the same output directory.
+     * 
+     * @since 2.1.0
+     */
+    void setPrintWriters(Map<String, MOCsvWriter> printWriters){
+        moiPrintWriters = printWriters;
+    }
+    
+    /**
+     * Set the output file rotation and sharding.
+     * 
+     * @since 2.1.0
+     * @param rotation
+     */
+    public void setOutputRotation(OutputRotation rotation){
+        outputRotation = rotation;
+    }
+    
+    /**
+     * Write the rows of all classNames to the given stream as records tagged
+     * with the className, in a single pass. Progress messages go to standard 
+     * error.
+     * 
+     * @since 2.1.0
+     * @param out
+     */
+    public void setMultiplexedOutput(PrintWriter out){
+        multiplexedOutput = out;
+        progress = System.err;
+        if(fdnIndex == null) parserState = ParserStates.EXTRACTING_VALUES;
+    }
+    
+    /**
+     * Collect statistics of the values written per className column. They 
+     * are written to column_stats.csv in the output directory at the end of
+     * parse().
+     * 
+     * @since 2.1.0
+     * @param stats
+     */
+    public void setColumnStats(ColumnStatistics stats){
+        columnStats = stats;
+    }
+    
+    /**
+     * The column statistics. Null when they are not collected.
+     * 
+     * @since 2.1.0
+     * @return ColumnStatistics
+     */
+    ColumnStatistics getColumnStats(){
+        return columnStats;
+    }
+    
+    /**
+     * Set where progress messages go.
+     * 
+     * @since 2.1.0
+     * @param stream
+     */
+    public void setProgressStream(PrintStream stream){
+        progress = stream;
+    }
+    
+    /**
+     * Parse only the network elements selected by the filter.
+     * 
+     * @since 2.1.0
+     * @param filter
+     */
+    public void setNeFilter(NeFilter filter){
+        neFilter = filter;
+    }
+    
+    /**
+     * Skip files that did not change since the previous run into the output
+     * directory and reuse the rows they produced.
+     * 
+     * @since 2.1.0
+     * @param manifest
+     */
+    public void setParseManifest(ParseManifest manifest){
+        parseManifest = manifest;
+    }
+    
+    /**
+     * Keep only the newest instance of each fdn across dumps. The index is 
+     * filled during the parameter extraction pass, which then also runs when
+     * a parameter file is used.
+     * 
+     * @since 2.1.0
+     * @param index
+     * @param timeAttribute Attribute holding the export time or null to use 
+     *                      the modification time of the dump
+     */
+    public void setFdnIndex(FdnIndex index, String timeAttribute){
+        fdnIndex = index;
+        dedupeTimeAttr = timeAttribute;
+        if(index != null && parserState == ParserStates.EXTRACTING_VALUES){
+            parserState = ParserStates.EXTRACTING_PARAMETERS;
+        }
+    }
+    
     
   /**
      * Extract parameter list from  parameter file
@@ -725,11 +1582,13 @@ public class HuaweiCMMOTreeParser {
         for(String line; (line = br.readLine()) != null; ) {
            String [] moAndParameters =  line.split(":");
            String mo = moAndParameters[0];
-           String [] parameters = moAndParameters[1].split(",");
            
            Stack parameterStack = new Stack();
-           for(int i =0; i < parameters.length; i++){
-               parameterStack.push(parameters[i]);
+           if(moAndParameters.length > 1){
+               String [] parameters = moAndParameters[1].split(",");
+               for(int i =0; i < parameters.length; i++){
+                   parameterStack.push(parameters[i]);
+               }
            }
            
            moColumns.put(mo, parameterStack);
@@ -757,6 +1616,22 @@ public class HuaweiCMMOTreeParser {
         Boolean showHelpMessage = false;
         Boolean showVersion = false;
         Boolean attachMetaFields = false; //Attach mattachMetaFields FILENAME,DATETIME,TECHNOLOGY,VENDOR,VERSION,NETYPE
+        Boolean watchInput = false;
+        Boolean batchMode = false;
+        String doneDirectory = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long pollInterval = 5;
+        long maxRows = 0;
+        long maxBytes = 0;
+        Boolean shardByNodeName = false;
+        Boolean dedupe = false;
+        String dedupeTimeAttr = null;
+        Boolean incremental = false;
+        int workers = 0;
+        String inputList = null;
+        String workerLauncher = null;
+        String neFilterSpec = null;
+        Boolean columnStats = false;
 
         try {
             options.addOption("p", "extract-parameters", false, "extract only the managed objects and parameters");
@@ -776,6 +1651,74 @@ public class HuaweiCMMOTreeParser {
                     .desc("parameter configuration file")
                     .hasArg()
                     .argName("PARAMETER_CONFIG").build());
+            options.addOption("w", "watch", false, "watch the input directory and parse dumps as they arrive");
+            options.addOption("b", "batch", false, "parse the input directory on several threads, largest file first");
+            options.addOption(Option.builder("d")
+                    .longOpt("done-directory")
+                    .desc("directory parsed dumps are moved to in watch mode")
+                    .hasArg()
+                    .argName("DONE_DIRECTORY").build());
+            options.addOption(Option.builder("t")
+                    .longOpt("threads")
+                    .desc("number of worker threads")
+                    .hasArg()
+                    .argName("THREADS").build());
+            options.addOption(Option.builder()
+                    .longOpt("poll-interval")
+                    .desc("seconds between input directory scans in watch mode")
+                    .hasArg()
+                    .argName("SECONDS").build());
+            options.addOption(Option.builder()
+                    .longOpt("max-rows")
+                    .desc("roll className csv files over after this many rows")
+                    .hasArg()
+                    .argName("ROWS").build());
+            options.addOption(Option.builder()
+                    .longOpt("max-bytes")
+                    .desc("roll className csv files over after this many bytes")
+                    .hasArg()
+                    .argName("BYTES").build());
+            options.addOption(Option.builder()
+                    .longOpt("shard-by-ne")
+                    .desc("write separate className csv files for each NODENAME")
+                    .build());
+            options.addOption(Option.builder()
+                    .longOpt("dedupe")
+                    .desc("keep only the newest instance of each fdn across dumps")
+                    .build());
+            options.addOption(Option.builder()
+                    .longOpt("dedupe-time-attr")
+                    .desc("attribute holding the export time used by --dedupe instead of the file time")
+                    .hasArg()
+                    .argName("ATTR").build());
+            options.addOption(Option.builder()
+                    .longOpt("incremental")
+                    .desc("skip input files that did not change since the previous run into the output directory")
+                    .build());
+            options.addOption(Option.builder()
+                    .longOpt("workers")
+                    .desc("parse the input directory with this many worker processes")
+                    .hasArg()
+                    .argName("WORKERS").build());
+            options.addOption(Option.builder()
+                    .longOpt("input-list")
+                    .desc("file listing the input files to parse, one per line")
+                    .hasArg()
+                    .argName("LIST_FILE").build());
+            options.addOption(Option.builder()
+                    .longOpt("worker-launcher")
+                    .desc("command prefix used to start each worker process, {worker} is replaced by the worker number")
+                    .hasArg()
+                    .argName("COMMAND").build());
+            options.addOption(Option.builder()
+                    .longOpt("ne-filter")
+                    .desc("parse only the NEs whose name or fdn is in this comma separated list, or matches regex:<expression>")
+                    .hasArg()
+                    .argName("NES").build());
+            options.addOption(Option.builder()
+                    .longOpt("column-stats")
+                    .desc("write row, empty, distinct, min, max and most frequent value counts per className column to column_stats.csv")
+                    .build());
             options.addOption("h", "help", false, "show help");
 
             //Parse command line arguments
@@ -806,6 +1749,70 @@ public class HuaweiCMMOTreeParser {
                 onlyExtractParameters = true;
             }
 
+            if (cmd.hasOption('w')) {
+                watchInput = true;
+            }
+
+            if (cmd.hasOption('b')) {
+                batchMode = true;
+            }
+
+            if (cmd.hasOption('d')) {
+                doneDirectory = cmd.getOptionValue("d");
+            }
+
+            if (cmd.hasOption('t')) {
+                threads = Integer.parseInt(cmd.getOptionValue("t"));
+            }
+
+            if (cmd.hasOption("poll-interval")) {
+                pollInterval = Long.parseLong(cmd.getOptionValue("poll-interval"));
+            }
+
+            if (cmd.hasOption("max-rows")) {
+                maxRows = Long.parseLong(cmd.getOptionValue("max-rows"));
+            }
+
+            if (cmd.hasOption("max-bytes")) {
+                maxBytes = Long.parseLong(cmd.getOptionValue("max-bytes"));
+            }
+
+            if (cmd.hasOption("shard-by-ne")) {
+                shardByNodeName = true;
+            }
+
+            if (cmd.hasOption("dedupe")) {
+                dedupe = true;
+            }
+
+            if (cmd.hasOption("dedupe-time-attr")) {
+                dedupeTimeAttr = cmd.getOptionValue("dedupe-time-attr");
+            }
+
+            if (cmd.hasOption("incremental")) {
+                incremental = true;
+            }
+
+            if (cmd.hasOption("workers")) {
+                workers = Integer.parseInt(cmd.getOptionValue("workers"));
+            }
+
+            if (cmd.hasOption("input-list")) {
+                inputList = cmd.getOptionValue("input-list");
+            }
+
+            if (cmd.hasOption("worker-launcher")) {
+                workerLauncher = cmd.getOptionValue("worker-launcher");
+            }
+
+            if (cmd.hasOption("ne-filter")) {
+                neFilterSpec = cmd.getOptionValue("ne-filter");
+            }
+
+            if (cmd.hasOption("column-stats")) {
+                columnStats = true;
+            }
+
         } catch (IllegalArgumentException e) {
 
         } catch (ParseException ex) {
@@ -822,8 +1829,9 @@ public class HuaweiCMMOTreeParser {
             
             //show help
             if( showHelpMessage == true || 
-                inputFile == null || 
-                ( outputDirectory == null && onlyExtractParameters == false) ){
+                ( inputFile == null && inputList == null ) || 
+                ( outputDirectory == null && onlyExtractParameters == false) ||
+                ( watchInput == true && doneDirectory == null ) ){
                      HelpFormatter formatter = new HelpFormatter();
                      String header = "Parses Huawei MO Tree CM XML data to csv\n\n";
                      String footer = "\n";
@@ -832,14 +1840,52 @@ public class HuaweiCMMOTreeParser {
                      footer += "java -jar boda-huaweicmmotreeparser.jar -i input_folder -o out_folder\n";
                      footer += "java -jar boda-huaweicmmotreeparser.jar -i input_folder -p\n";
                      footer += "java -jar boda-huaweicmmotreeparser.jar -i input_folder -p -m\n";
+                     footer += "java -jar boda-huaweicmmotreeparser.jar -i input_folder -o out_folder -w -d done_folder\n";
+                     footer += "java -jar boda-huaweicmmotreeparser.jar -i input_folder -o out_folder -b -t 8\n";
+                     footer += "java -jar boda-huaweicmmotreeparser.jar -i dump_file -o out_folder --max-rows 1000000 --shard-by-ne\n";
+                     footer += "java -jar boda-huaweicmmotreeparser.jar -i input_folder -o out_folder --dedupe\n";
+                     footer += "java -jar boda-huaweicmmotreeparser.jar -i input_folder -o out_folder --incremental\n";
+                     footer += "java -jar boda-huaweicmmotreeparser.jar -i input_folder -o out_folder --workers 4\n";
+                     footer += "java -jar boda-huaweicmmotreeparser.jar -i input_folder -o out_folder --ne-filter \"regex:BSC(1|2)\"\n";
+                     footer += "java -jar boda-huaweicmmotreeparser.jar -i input_folder -o out_folder --column-stats\n";
+                     footer += "zcat dump_file.gz | java -jar boda-huaweicmmotreeparser.jar -i - -o - -c parameters.cfg | loader\n";
                      footer += "\nCopyright (c) 2019 Bodastage Solutions(http://www.bodastage.com)";
                      formatter.printHelp( "java -jar boda-huaweicmmotreeparser.jar", header, options, footer );
                      System.exit(0);
             }
             
+            boolean stdin = STDIO.equals(inputFile) && inputList == null;
+            boolean stdout = STDIO.equals(outputDirectory);
+            
+            if(stdin == true && (batchMode == true || watchInput == true || workers > 0
+                    || incremental == true || dedupe == true)){
+                System.err.println("ERROR: -i - cannot be combined with -b, -w, --workers, --incremental or --dedupe.");
+                System.exit(1);
+            }
+            
+            if(stdout == true && (batchMode == true || watchInput == true || workers > 0
+                    || incremental == true || dedupe == true 
+                    || maxRows > 0 || maxBytes > 0 || shardByNodeName == true)){
+                System.err.println("ERROR: -o - cannot be combined with -b, -w, --workers, --incremental, --dedupe, rotation or sharding.");
+                System.exit(1);
+            }
+            
+            if(columnStats == true && (stdout == true || workers > 0 || incremental == true)){
+                System.err.println("ERROR: --column-stats cannot be combined with -o -, --workers or --incremental.");
+                System.exit(1);
+            }
+
+            //These modes parse the -i directory and always write the
+            //className csv files
+            if((batchMode == true || watchInput == true || workers > 0)
+                    && (onlyExtractParameters == true || inputList != null || inputFile == null)){
+                System.err.println("ERROR: -b, -w and --workers need -i and cannot be combined with -p or --input-list.");
+                System.exit(1);
+            }
+            
             //Confirm that the output directory is a directory and has write 
             //privileges
-            if(outputDirectory != null ){
+            if(outputDirectory != null && stdout == false){
                 File fOutputDir = new File(outputDirectory);
                 if (!fOutputDir.isDirectory()) {
                     System.err.println("ERROR: The specified output directory is not a directory!.");
@@ -852,6 +1898,84 @@ public class HuaweiCMMOTreeParser {
                 }
             }
             
+            OutputRotation outputRotation 
+                    = new OutputRotation(maxRows, maxBytes, shardByNodeName);
+            
+            if(incremental == true && (outputRotation.isEnabled() || dedupe == true 
+                    || batchMode == true || watchInput == true || outputDirectory == null
+                    || neFilterSpec != null)){
+                System.err.println("ERROR: --incremental needs an output directory and cannot be combined with rotation, sharding, --dedupe, --ne-filter, -b or -w.");
+                System.exit(1);
+            }
+            
+            if(workers > 0 && (dedupe == true || incremental == true || outputDirectory == null
+                    || inputFile == null || !new File(inputFile).isDirectory())){
+                System.err.println("ERROR: --workers needs an input directory and an output directory and cannot be combined with --dedupe or --incremental.");
+                System.exit(1);
+            }
+            
+            NeFilter neFilter = null;
+            if(neFilterSpec != null){
+                neFilter = new NeFilter(neFilterSpec);
+            }
+            
+            if(dedupe == true && watchInput == true){
+                System.err.println("ERROR: --dedupe cannot be combined with -w.");
+                System.exit(1);
+            }
+            
+            //The index table is kept next to the output rather than in the
+            //temporary directory, which is often memory backed
+            FdnIndex fdnIndex = null;
+            if(dedupe == true){
+                fdnIndex = new FdnIndex(outputDirectory == null ? null : new File(outputDirectory));
+            }
+            
+            //Watch the input directory
+            if(watchInput == true){
+                WatchFolderDaemon daemon = new WatchFolderDaemon(new File(inputFile),
+                        new File(outputDirectory), new File(doneDirectory), threads);
+                daemon.setPollInterval(pollInterval);
+                daemon.setOutputRotation(outputRotation);
+                daemon.setNeFilter(neFilter);
+                daemon.setColumnStats(columnStats);
+                if(parameterConfigFile != null && new File(parameterConfigFile).isFile()){
+                    daemon.setParameterFile(parameterConfigFile);
+                }
+                daemon.run();
+                System.exit(0);
+            }
+            
+            //Parse the input directory with several worker processes
+            if(workers > 0){
+                DistributedCoordinator coordinator = new DistributedCoordinator(
+                        new File(inputFile), new File(outputDirectory), workers);
+                coordinator.setOutputRotation(outputRotation);
+                coordinator.setWorkerLauncher(workerLauncher);
+                coordinator.setNeFilter(neFilter);
+                if(parameterConfigFile != null && new File(parameterConfigFile).isFile()){
+                    coordinator.setParameterFile(parameterConfigFile);
+                }
+                coordinator.run();
+                System.exit(0);
+            }
+            
+            //Parse the input directory on several threads
+            if(batchMode == true && outputDirectory != null && new File(inputFile).isDirectory()){
+                BatchScheduler scheduler = new BatchScheduler(new File(inputFile), outputDirectory);
+                scheduler.setMaxThreads(threads);
+                scheduler.setOutputRotation(outputRotation);
+                scheduler.setFdnIndex(fdnIndex, dedupeTimeAttr);
+                scheduler.setNeFilter(neFilter);
+                scheduler.setColumnStats(columnStats);
+                if(parameterConfigFile != null && new File(parameterConfigFile).isFile()){
+                    scheduler.setParameterFile(parameterConfigFile);
+                }
+                scheduler.run();
+                if(fdnIndex != null) fdnIndex.close();
+                System.exit(0);
+            }
+            
             //Get parser instance
             HuaweiCMMOTreeParser cmParser = new HuaweiCMMOTreeParser();
 
@@ -870,16 +1994,48 @@ public class HuaweiCMMOTreeParser {
                 }
             }
             
-            cmParser.setDataSource(inputFile);
+            if(inputList != null){
+                cmParser.setInputList(inputList);
+            }else{
+                cmParser.setDataSource(inputFile);
+            }
+            cmParser.setOutputRotation(outputRotation);
+            cmParser.setFdnIndex(fdnIndex, dedupeTimeAttr);
+            cmParser.setNeFilter(neFilter);
+            if(columnStats == true) cmParser.setColumnStats(new ColumnStatistics());
+            if(incremental == true){
+                cmParser.setParseManifest(new ParseManifest(new File(outputDirectory)));
+            }
             if(outputDirectory != null ) cmParser.setOutputDirectory(outputDirectory);
             
+            //Print the parameters when there is no output directory
+            if((outputDirectory == null || stdout == true) && onlyExtractParameters == true){
+                cmParser.setOutputDirectory(null);
+                cmParser.setProgressStream(System.err);
+            }else if(stdout == true){
+                cmParser.setMultiplexedOutput(new PrintWriter(new BufferedWriter(
+                        new OutputStreamWriter(System.out), 1 << 16)));
+            }
+            
             cmParser.parse();
             
+            if(fdnIndex != null) fdnIndex.close();
+            
         }catch (Exception ex) {
-            System.out.println(ex.getMessage());
+            //Standard output may carry the records
+            System.err.println(ex.getMessage());
             System.exit(1);
         }
     }
     
-    
+    /**
+     * The className and attributes of an MO open at a given depth.
+     * 
+     * @since 2.1.0
+     */
+    private static final class MOFrame {
+        String className;
+        String fdn;
+        final LinkedHashMap<String,String> attrs = new LinkedHashMap<String,String>();
+    }
 }
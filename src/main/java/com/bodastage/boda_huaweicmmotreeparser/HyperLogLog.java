@@ -0,0 +1,88 @@
+/*
+ *
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+/**
+ * HyperLogLog distinct value estimator.
+ *
+ * Uses 2^PRECISION one byte registers, 1KB, whatever the number of values.
+ * The standard error is about 1.04 / sqrt(2^PRECISION), 3.3%. Small
+ * cardinalities are estimated by linear counting. Two estimators are merged
+ * by keeping the larger of each register.
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+final class HyperLogLog {
+
+    static final int PRECISION = 10;
+
+    private static final int REGISTERS = 1 << PRECISION;
+
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /**
+     * Add a value.
+     *
+     * @param value
+     */
+    void add(String value){
+        addHash(hash(value));
+    }
+
+    void addHash(long hash){
+        int index = (int) (hash >>> (64 - PRECISION));
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if(rank > registers[index]) registers[index] = (byte) rank;
+    }
+
+    /**
+     * Estimated number of distinct values added.
+     *
+     * @return long
+     */
+    long estimate(){
+        double sum = 0;
+        int zeros = 0;
+        for(byte r : registers){
+            sum += 1.0 / (1L << r);
+            if(r == 0) zeros++;
+        }
+
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if(estimate <= 2.5 * REGISTERS && zeros > 0){
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Add the values of another estimator.
+     *
+     * @param other
+     */
+    void merge(HyperLogLog other){
+        for(int i = 0; i < REGISTERS; i++){
+            if(other.registers[i] > registers[i]) registers[i] = other.registers[i];
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the value with a SplitMix64 finaliser.
+     *
+     * @param value
+     * @return long
+     */
+    static long hash(String value){
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < value.length(); i++){
+            h = (h ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+}
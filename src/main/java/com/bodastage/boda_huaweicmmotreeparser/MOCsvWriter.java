@@ -0,0 +1,302 @@
+/*
+ *
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the rows of one className.
+ *
+ * Without rotation all rows go to className.csv. With rotation the rows are
+ * split over className[-NODENAME]-NNNNN.csv files. Every file starts with the
+ * column headers and each finished file is recorded for the manifest.
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+public class MOCsvWriter {
+
+    /**
+     * Name of the manifest written to the output directory when rotation or
+     * sharding is enabled.
+     */
+    public static final String MANIFEST_FILE = "manifest.csv";
+
+    /**
+     * Maximum number of shard files kept open per className. Shards closed
+     * to stay under the limit are reopened in append mode.
+     */
+    static final int MAX_OPEN_SHARDS = 32;
+
+    private static final int LINE_SEPARATOR_LENGTH
+            = System.getProperty("line.separator").length();
+
+    /**
+     * Encoding of the csv files.
+     */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private static final boolean SINGLE_BYTE_CHARSET
+            = CHARSET.newEncoder().maxBytesPerChar() == 1;
+
+    private final String directory;
+
+    private final String className;
+
+    private final String header;
+
+    private final OutputRotation rotation;
+
+    /**
+     * Shards by NODENAME. Without sharding there is a single shard with an
+     * empty key.
+     */
+    private final Map<String, Shard> shards = new LinkedHashMap<String, Shard>();
+
+    /**
+     * Number of shards with an open print writer.
+     */
+    private int openShards = 0;
+
+    /**
+     * Rows written to all files.
+     */
+    private long rowCount = 0;
+
+    /**
+     * Files that have been completed. Each entry is FILE,CLASSNAME,NODENAME,
+     * ROWS,BYTES.
+     */
+    private final List<String> manifestEntries = new ArrayList<String>();
+
+    public MOCsvWriter(String directory, String className, String header,
+            OutputRotation rotation){
+        this.directory = directory;
+        this.className = className;
+        this.header = header;
+        this.rotation = rotation;
+    }
+
+    /**
+     * Write one row.
+     *
+     * @param row The csv formatted row
+     * @param nodeName The row's NODENAME. Only used when sharding.
+     * @throws FileNotFoundException
+     */
+    public synchronized void println(String row, String nodeName)
+            throws FileNotFoundException {
+        String key = "";
+        if(rotation.shardByNodeName && nodeName != null) key = nodeName;
+
+        Shard shard = shards.get(key);
+        if(shard == null){
+            shard = new Shard(key);
+            shards.put(key, shard);
+        }
+
+        //Only needed for the limits and the manifest
+        long length = rotation.isEnabled() ? encodedLength(row) + LINE_SEPARATOR_LENGTH : 0;
+        if(shard.rows > 0 && (
+                (rotation.maxRows > 0 && shard.rows >= rotation.maxRows) ||
+                (rotation.maxBytes > 0 && shard.bytes + length > rotation.maxBytes))){
+            shard.close();
+            manifestEntries.add(shard.manifestEntry());
+            shard.part++;
+            shard.created = false;
+            shard.rows = 0;
+            shard.bytes = 0;
+        }
+
+        if(shard.pw == null) shard.open();
+
+        shard.pw.println(row);
+        shard.rows++;
+        shard.bytes += length;
+        rowCount++;
+    }
+
+    /**
+     * Number of bytes the string takes in the csv files.
+     *
+     * @param s
+     * @return long
+     */
+    static long encodedLength(String s){
+        //Characters that cannot be encoded, including surrogate pairs, are
+        //written as a single ?
+        if(SINGLE_BYTE_CHARSET) return s.codePointCount(0, s.length());
+        if(!CHARSET.equals(StandardCharsets.UTF_8)) return s.getBytes(CHARSET).length;
+
+        long length = s.length();
+        for(int i = 0; i < s.length(); i++){
+            char c = s.charAt(i);
+            if(c < 0x80) continue;
+            if(c < 0x800){
+                length += 1;
+            }else if(!Character.isSurrogate(c)){
+                length += 2;
+            }else if(Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))){
+                //4 bytes for the pair
+                length += 2;
+                i++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Number of rows written to all files.
+     *
+     * @return long
+     */
+    public synchronized long getRowCount(){
+        return rowCount;
+    }
+
+    /**
+     * Close all files.
+     */
+    public synchronized void close(){
+        for(Shard shard : shards.values()){
+            shard.close();
+            manifestEntries.add(shard.manifestEntry());
+        }
+        shards.clear();
+    }
+
+    /**
+     * Manifest entries of the completed files.
+     *
+     * @return List
+     */
+    synchronized List<String> getManifestEntries(){
+        return manifestEntries;
+    }
+
+    /**
+     * Close the writers in the map and write the manifest when rotation or
+     * sharding is enabled.
+     *
+     * @param writers
+     * @param directory
+     * @param rotation
+     * @throws FileNotFoundException
+     */
+    static void closeAll(Map<String, MOCsvWriter> writers, String directory,
+            OutputRotation rotation) throws FileNotFoundException {
+        List<String> entries = new ArrayList<String>();
+        Iterator<Map.Entry<String, MOCsvWriter>> iter
+                = writers.entrySet().iterator();
+        while (iter.hasNext()) {
+            MOCsvWriter writer = iter.next().getValue();
+            writer.close();
+            entries.addAll(writer.getManifestEntries());
+        }
+        writers.clear();
+
+        if(rotation.isEnabled() && !entries.isEmpty()){
+            File manifest = new File(directory, MANIFEST_FILE);
+            PrintWriter pw = new PrintWriter(manifest);
+            pw.println("FILE,CLASSNAME,NODENAME,ROWS,BYTES");
+            for(String entry : entries){
+                pw.println(entry);
+            }
+            pw.close();
+        }
+    }
+
+    /**
+     * Make a value safe to use in a file name.
+     *
+     * @param s
+     * @return String
+     */
+    static String toFileNamePart(String s){
+        return s.replaceAll("[^A-Za-z0-9_.=-]", "_");
+    }
+
+    /**
+     * The files of one NODENAME, or of all rows when not sharding.
+     */
+    private class Shard {
+        final String key;
+        int part = 1;
+        long rows = 0;
+        long bytes = 0;
+        PrintWriter pw = null;
+
+        /**
+         * Whether the current part's file has been created.
+         */
+        boolean created = false;
+
+        Shard(String key){
+            this.key = key;
+        }
+
+        String fileName(){
+            if(!rotation.isEnabled()) return className + ".csv";
+
+            String name = className;
+            if(rotation.shardByNodeName) name += "-" + toFileNamePart(key);
+            if(rotation.isRolling()) name += "-" + String.format("%05d", part);
+            return name + ".csv";
+        }
+
+        void open() throws FileNotFoundException {
+            if(openShards >= MAX_OPEN_SHARDS) closeOldestShard();
+
+            String file = directory + File.separatorChar + fileName();
+            pw = new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream(file, created), CHARSET));
+            if(!created){
+                pw.println(header);
+                bytes += encodedLength(header) + LINE_SEPARATOR_LENGTH;
+                created = true;
+            }
+
+            //Move to the end of the access order
+            shards.remove(key);
+            shards.put(key, this);
+            openShards++;
+        }
+
+        void close(){
+            if(pw == null) return;
+            pw.close();
+            pw = null;
+            openShards--;
+        }
+
+        String manifestEntry(){
+            return fileName() + "," + className + ","
+                    + HuaweiCMMOTreeParser.toCSVFormat(key) + "," + rows + "," + bytes;
+        }
+    }
+
+    /**
+     * Close the least recently opened shard that is still open.
+     */
+    private void closeOldestShard(){
+        for(Shard shard : shards.values()){
+            if(shard.pw != null){
+                shard.close();
+                return;
+            }
+        }
+    }
+}
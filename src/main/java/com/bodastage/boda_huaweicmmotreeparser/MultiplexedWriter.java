@@ -0,0 +1,85 @@
+/*
+ *
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.PrintWriter;
+
+/**
+ * Writes the rows of one className to a stream shared by all classNames.
+ *
+ * Each line is a record tagged with its type and className:
+ *
+ *   H,className,FILENAME,NODENAME,column,...
+ *   R,className,value,value,...
+ *
+ * A className's header record comes before its first row. When the columns
+ * of the className grow during a single pass parse, a new header record is
+ * written and the following rows use it.
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+class MultiplexedWriter extends MOCsvWriter {
+
+    /**
+     * The shared stream. Records are written while holding its lock so that
+     * lines of different classNames do not mix.
+     */
+    private final PrintWriter out;
+
+    private final String classNameField;
+
+    private String header;
+
+    private long rowCount = 0;
+
+    MultiplexedWriter(PrintWriter out, String className, String header){
+        super(null, className, header, OutputRotation.NONE);
+        this.out = out;
+        this.classNameField = HuaweiCMMOTreeParser.toCSVFormat(className);
+        writeHeader(header);
+    }
+
+    /**
+     * Announce new columns. Nothing is written when the header is unchanged.
+     *
+     * @param header
+     */
+    synchronized void setHeader(String header){
+        if(!header.equals(this.header)) writeHeader(header);
+    }
+
+    private void writeHeader(String header){
+        this.header = header;
+        synchronized(out){
+            out.print("H,");
+            out.print(classNameField);
+            out.print(',');
+            out.println(header);
+        }
+    }
+
+    @Override
+    public synchronized void println(String row, String nodeName){
+        synchronized(out){
+            out.print("R,");
+            out.print(classNameField);
+            out.print(',');
+            out.println(row);
+        }
+        rowCount++;
+    }
+
+    @Override
+    public synchronized long getRowCount(){
+        return rowCount;
+    }
+
+    @Override
+    public synchronized void close(){
+        synchronized(out){
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ *
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the network elements to parse.
+ *
+ * A network element is a depth 1 MO. It is selected when its fdn or its name
+ * attribute is in the list, or matches the regular expression when the filter
+ * is given as "regex:&lt;expression&gt;".
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+public final class NeFilter {
+
+    /**
+     * Prefix of a regular expression filter.
+     */
+    static final String REGEX_PREFIX = "regex:";
+
+    /**
+     * The filter as given on the command line.
+     */
+    private final String spec;
+
+    private final Set<String> names = new HashSet<String>();
+
+    private final Pattern pattern;
+
+    /**
+     * @param spec Comma separated NE names or fdns, or "regex:" followed by
+     *             a regular expression
+     */
+    public NeFilter(String spec){
+        this.spec = spec;
+        if(spec.startsWith(REGEX_PREFIX)){
+            pattern = Pattern.compile(spec.substring(REGEX_PREFIX.length()));
+        }else{
+            pattern = null;
+            for(String name : spec.split(",")){
+                if(!name.trim().isEmpty()) names.add(name.trim());
+            }
+        }
+    }
+
+    /**
+     * Whether an NE with the given fdn or name is selected.
+     *
+     * @param value fdn or name, may be null
+     * @return boolean
+     */
+    public boolean matches(String value){
+        if(value == null) return false;
+        if(pattern != null) return pattern.matcher(value).matches();
+        return names.contains(value);
+    }
+
+    @Override
+    public String toString(){
+        return spec;
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ *
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Removes the network elements not selected by an NE filter from a dump
+ * before it reaches the XML parser.
+ *
+ * The stream works on the raw bytes. It only looks at tags: the text between
+ * them is copied or dropped in blocks. The fdn of each depth 1 MO is checked
+ * on its start tag. When it does not match, the start of the MO is held back
+ * until its name attribute has been read, or until its first child MO or its
+ * end tag, whichever comes first. A rejected MO is then dropped up to its
+ * matching &lt;/MO&gt; by counting MO start and end tags, so skipped network
+ * elements cost little more than reading them.
+ *
+ * Comments, CDATA sections and processing instructions are read as a whole
+ * so that MO tags inside them are not counted. The markup searched for is
+ * ASCII, so the stream works for UTF-8 and single byte encodings.
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+final class NeFilterInputStream extends InputStream {
+
+    /**
+     * Bytes are passed on.
+     */
+    private static final int PASS = 0;
+
+    /**
+     * Bytes are held back until the NE is selected or rejected.
+     */
+    private static final int HOLD = 1;
+
+    /**
+     * Bytes are dropped up to the end of the NE.
+     */
+    private static final int SKIP = 2;
+
+    /**
+     * Bytes made available per fill before returning to the reader.
+     */
+    private static final int FILL_SIZE = 1 << 13;
+
+    private final InputStream in;
+
+    private final NeFilter filter;
+
+    /**
+     * Charset used to decode the fdn and name of an NE.
+     */
+    private final Charset charset;
+
+    private final byte[] buf = new byte[1 << 16];
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+
+    /**
+     * Bytes ready to be read.
+     */
+    private byte[] out = new byte[FILL_SIZE * 2];
+    private int outPos = 0;
+    private int outLimit = 0;
+
+    /**
+     * The tag being handled, from &lt; to &gt;.
+     */
+    private byte[] tag = new byte[256];
+    private int tagLength = 0;
+
+    /**
+     * Start of the current NE while it is held back.
+     */
+    private byte[] held = new byte[1 << 12];
+    private int heldLength = 0;
+
+    private int state = PASS;
+
+    /**
+     * MO nesting depth.
+     */
+    private int depth = 0;
+
+    /**
+     * Fdn of the current NE.
+     */
+    private String neFdn = null;
+
+    /**
+     * Whether the text of the NE's name attribute is being held.
+     */
+    private boolean capturingName = false;
+
+    /**
+     * Offset of the name text in the held bytes.
+     */
+    private int nameStart = 0;
+
+    private long keptCount = 0;
+
+    private long skippedCount = 0;
+
+    NeFilterInputStream(InputStream in, NeFilter filter, Charset charset){
+        this.in = in;
+        this.filter = filter;
+        this.charset = charset;
+    }
+
+    /**
+     * Number of network elements passed on.
+     *
+     * @return long
+     */
+    long getKeptCount(){
+        return keptCount;
+    }
+
+    /**
+     * Number of network elements dropped.
+     *
+     * @return long
+     */
+    long getSkippedCount(){
+        return skippedCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(outPos == outLimit && !fill()) return -1;
+        return out[outPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) return 0;
+        if(outPos == outLimit && !fill()) return -1;
+        int n = Math.min(len, outLimit - outPos);
+        System.arraycopy(out, outPos, b, off, n);
+        outPos += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Filter input until some bytes are ready or the input ends.
+     *
+     * @return boolean false at the end of the input
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        outPos = 0;
+        outLimit = 0;
+        while(outLimit < FILL_SIZE && step()){
+            //Keep filtering
+        }
+        return outLimit > 0;
+    }
+
+    /**
+     * Handle the next block of text or the next tag.
+     *
+     * @return boolean false at the end of the input
+     * @throws IOException
+     */
+    private boolean step() throws IOException {
+        if(pos == limit && !refill()){
+            //Pass on an NE that was cut off
+            if(state == HOLD) emit(held, 0, heldLength);
+            heldLength = 0;
+            state = PASS;
+            return false;
+        }
+
+        if(buf[pos] != '<'){
+            byte[] b = buf;
+            int l = limit;
+            int end = pos;
+            while(end < l && b[end] != '<') end++;
+
+            if(state == PASS){
+                emit(buf, pos, end - pos);
+            }else if(state == HOLD){
+                hold(buf, pos, end - pos);
+            }
+            pos = end;
+            return true;
+        }
+
+        readTag();
+        handleTag();
+        return true;
+    }
+
+    private void handleTag(){
+        boolean empty = tagLength > 1 && tag[tagLength - 2] == '/';
+
+        if(isStartTag("MO")){
+            if(depth == 0){
+                neFdn = attribute("fdn");
+                capturingName = false;
+                heldLength = 0;
+                if(filter.matches(neFdn)){
+                    state = PASS;
+                    keptCount++;
+                    emit(tag, 0, tagLength);
+                }else{
+                    state = HOLD;
+                    hold(tag, 0, tagLength);
+                }
+
+                if(empty){
+                    if(state == HOLD) decide(null);
+                    state = PASS;
+                }else{
+                    depth = 1;
+                }
+                return;
+            }
+
+            if(state == HOLD) decide(null);
+            if(state == PASS) emit(tag, 0, tagLength);
+            if(!empty) depth++;
+            return;
+        }
+
+        if(isEndTag("MO")){
+            if(state == HOLD) decide(null);
+            if(state == PASS) emit(tag, 0, tagLength);
+            depth--;
+            if(depth <= 0){
+                depth = 0;
+                state = PASS;
+            }
+            return;
+        }
+
+        if(state == PASS){
+            emit(tag, 0, tagLength);
+        }else if(state == HOLD){
+            if(capturingName && isEndTag("attr")){
+                String name = decode(held, nameStart, heldLength - nameStart).trim();
+                hold(tag, 0, tagLength);
+                decide(name);
+                return;
+            }
+
+            hold(tag, 0, tagLength);
+            if(!empty && isStartTag("attr") && "name".equals(attribute("name"))){
+                capturingName = true;
+                nameStart = heldLength;
+            }
+        }
+    }
+
+    /**
+     * Select or reject the held NE.
+     *
+     * @param name The NE's name or null when it has none
+     */
+    private void decide(String name){
+        if(filter.matches(neFdn) || filter.matches(name)){
+            state = PASS;
+            keptCount++;
+            emit(held, 0, heldLength);
+        }else{
+            state = SKIP;
+            skippedCount++;
+        }
+        heldLength = 0;
+        capturingName = false;
+    }
+
+    /**
+     * Read the tag starting at the current position.
+     *
+     * @throws IOException
+     */
+    private void readTag() throws IOException {
+        tagLength = 0;
+        ensure(9);
+        if(startsWith("<!--")){
+            readUntil("-->");
+        }else if(startsWith("<![CDATA[")){
+            readUntil("]]>");
+        }else if(startsWith("<?")){
+            readUntil("?>");
+        }else{
+            readElement();
+        }
+    }
+
+    /**
+     * Read up to the closing &gt; outside of quoted attribute values.
+     *
+     * @throws IOException
+     */
+    private void readElement() throws IOException {
+        byte quote = 0;
+        while(true){
+            if(pos == limit && !refill()) return;
+
+            byte[] b = buf;
+            int l = limit;
+            for(int i = pos; i < l; i++){
+                byte c = b[i];
+                if(quote != 0){
+                    if(c == quote) quote = 0;
+                }else if(c == '"' || c == '\''){
+                    quote = c;
+                }else if(c == '>'){
+                    appendTag(b, pos, i + 1 - pos);
+                    pos = i + 1;
+                    return;
+                }
+            }
+            appendTag(b, pos, l - pos);
+            pos = l;
+        }
+    }
+
+    /**
+     * Read up to and including the terminator.
+     *
+     * @param terminator
+     * @throws IOException
+     */
+    private void readUntil(String terminator) throws IOException {
+        int n = terminator.length();
+        while(true){
+            if(pos == limit && !refill()) return;
+            appendTag(buf, pos++, 1);
+            if(tagLength >= n && regionMatches(tag, tagLength - n, terminator)) return;
+        }
+    }
+
+    /**
+     * Whether the tag is a start tag with the given name.
+     */
+    private boolean isStartTag(String name){
+        int n = name.length();
+        return tagLength > n + 1 && regionMatches(tag, 1, name)
+                && isDelimiter(tag[n + 1]);
+    }
+
+    /**
+     * Whether the tag is an end tag with the given name.
+     */
+    private boolean isEndTag(String name){
+        int n = name.length();
+        return tagLength > n + 2 && tag[1] == '/' && regionMatches(tag, 2, name)
+                && isDelimiter(tag[n + 2]);
+    }
+
+    /**
+     * Value of an attribute of the tag.
+     *
+     * @param name
+     * @return String or null when the tag does not have the attribute
+     */
+    private String attribute(String name){
+        int n = name.length();
+        for(int i = 1; i + n < tagLength; i++){
+            if(!isSpace(tag[i - 1]) || !regionMatches(tag, i, name)) continue;
+
+            int j = i + n;
+            while(j < tagLength && isSpace(tag[j])) j++;
+            if(j >= tagLength || tag[j] != '=') continue;
+            j++;
+            while(j < tagLength && isSpace(tag[j])) j++;
+            if(j >= tagLength || (tag[j] != '"' && tag[j] != '\'')) continue;
+
+            byte quote = tag[j++];
+            int start = j;
+            while(j < tagLength && tag[j] != quote) j++;
+            return decode(tag, start, j - start);
+        }
+        return null;
+    }
+
+    /**
+     * Decode bytes and replace the predefined entities.
+     */
+    private String decode(byte[] b, int off, int len){
+        String s = new String(b, off, len, charset);
+        if(s.indexOf('&') < 0) return s;
+        return s.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                .replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    private boolean startsWith(String s){
+        return limit - pos >= s.length() && regionMatches(buf, pos, s);
+    }
+
+    private static boolean regionMatches(byte[] b, int off, String s){
+        for(int i = 0; i < s.length(); i++){
+            if(b[off + i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte c){
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private static boolean isDelimiter(byte c){
+        return isSpace(c) || c == '>' || c == '/';
+    }
+
+    /**
+     * Read more input once the buffer is used up.
+     *
+     * @return boolean false at the end of the input
+     * @throws IOException
+     */
+    private boolean refill() throws IOException {
+        pos = 0;
+        limit = 0;
+        ensure(1);
+        return limit > 0;
+    }
+
+    /**
+     * Make at least n bytes available unless the input ends first.
+     *
+     * @param n
+     * @throws IOException
+     */
+    private void ensure(int n) throws IOException {
+        if(limit - pos >= n || eof) return;
+
+        System.arraycopy(buf, pos, buf, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+        while(limit < n){
+            int read = in.read(buf, limit, buf.length - limit);
+            if(read < 0){
+                eof = true;
+                return;
+            }
+            limit += read;
+        }
+    }
+
+    private void emit(byte[] b, int off, int len){
+        if(outLimit + len > out.length){
+            out = grow(out, outLimit + len);
+        }
+        System.arraycopy(b, off, out, outLimit, len);
+        outLimit += len;
+    }
+
+    private void hold(byte[] b, int off, int len){
+        if(heldLength + len > held.length){
+            held = grow(held, heldLength + len);
+        }
+        System.arraycopy(b, off, held, heldLength, len);
+        heldLength += len;
+    }
+
+    private void appendTag(byte[] b, int off, int len){
+        if(tagLength + len > tag.length){
+            tag = grow(tag, tagLength + len);
+        }
+        System.arraycopy(b, off, tag, tagLength, len);
+        tagLength += len;
+    }
+
+    private static byte[] grow(byte[] b, int minLength){
+        byte[] grown = new byte[Math.max(minLength, b.length * 2)];
+        System.arraycopy(b, 0, grown, 0, b.length);
+        return grown;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+/**
+ * When to roll className csv files over to a new file and whether to shard
+ * them by NODENAME.
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+public final class OutputRotation {
+
+    /**
+     * No rotation and no sharding. One csv file per className.
+     */
+    public static final OutputRotation NONE = new OutputRotation(0, 0, false);
+
+    /**
+     * Maximum number of rows per file, excluding the header. 0 for no limit.
+     */
+    final long maxRows;
+
+    /**
+     * Maximum size of a file in bytes, in the encoding the csv files are
+     * written in. 0 for no limit.
+     */
+    final long maxBytes;
+
+    /**
+     * Write a separate set of files for each NODENAME.
+     */
+    final boolean shardByNodeName;
+
+    public OutputRotation(long maxRows, long maxBytes, boolean shardByNodeName){
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.shardByNodeName = shardByNodeName;
+    }
+
+    /**
+     * Whether files are rolled over after a row or size limit.
+     *
+     * @return boolean
+     */
+    boolean isRolling(){
+        return maxRows > 0 || maxBytes > 0;
+    }
+
+    /**
+     * Whether output file names differ from the plain className.csv and a
+     * manifest is written.
+     *
+     * @return boolean
+     */
+    boolean isEnabled(){
+        return isRolling() || shardByNodeName;
+    }
+}
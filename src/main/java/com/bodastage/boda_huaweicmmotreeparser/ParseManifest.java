@@ -0,0 +1,518 @@
+/*
+ *
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.zip.CRC32;
+
+/**
+ * Fingerprints of the files parsed into an output directory.
+ *
+ * For each input file the manifest keeps its path, size, modification time
+ * and a content hash, the columns it contributed to each className and the
+ * range of rows it produced in each className csv file. On the next run
+ * files with the same size and content are not parsed again. Their columns
+ * are taken from the manifest and their rows are copied from the previous
+ * csv files, which are moved aside before the new ones are written.
+ *
+ * The manifest is moved aside with the csv files and a new one is only
+ * written once the run has succeeded. While the moved manifest exists a run
+ * was interrupted: the files next to it are the last complete output, are
+ * never overwritten and are used again by the next run.
+ *
+ * The manifest also records a hash of the parameter file. When the file or
+ * its content changed, or there is a parameter file where there was none,
+ * every input file is parsed again.
+ *
+ * Rows are counted in lines, so values containing line breaks are not
+ * supported. Incremental runs cannot be combined with output rotation,
+ * sharding, de-duplication or batch mode.
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+public class ParseManifest {
+
+    /**
+     * Name of the manifest in the output directory.
+     */
+    public static final String MANIFEST_FILE = "parse_manifest.txt";
+
+    /**
+     * Directory in the output directory holding the previous csv files
+     * while they are copied from.
+     */
+    static final String PREVIOUS_DIRECTORY = ".previous";
+
+    /**
+     * Parameter config hash recorded when there is no parameter file.
+     */
+    private static final String NO_CONFIG = "none";
+
+    /**
+     * What the manifest records about one input file.
+     */
+    static class Entry {
+        String path;
+        long size;
+        long modified;
+        String hash;
+
+        /**
+         * Columns found per className.
+         */
+        Map<String, Stack> columns = new LinkedHashMap<String, Stack>();
+
+        /**
+         * First row and number of rows per className.
+         */
+        Map<String, long[]> rows = new LinkedHashMap<String, long[]>();
+    }
+
+    private final File outputDirectory;
+
+    private final File previousDirectory;
+
+    /**
+     * Entries of the previous run by path.
+     */
+    private final Map<String, Entry> previous = new HashMap<String, Entry>();
+
+    /**
+     * Entries of this run by path.
+     */
+    private final Map<String, Entry> current = new LinkedHashMap<String, Entry>();
+
+    /**
+     * Open readers on the previous csv files.
+     */
+    private final Map<String, PreviousOutput> previousOutputs
+            = new HashMap<String, PreviousOutput>();
+
+    /**
+     * Data rows in each previous csv file, counted once when needed.
+     */
+    private final Map<String, Long> previousRowCounts = new HashMap<String, Long>();
+
+    /**
+     * Parameter config hash of the previous run. Null for manifests written
+     * before it was recorded.
+     */
+    private String previousConfig = null;
+
+    private String config = NO_CONFIG;
+
+    /**
+     * Reused files whose rows could not be copied.
+     */
+    private final List<String> uncopied = new ArrayList<String>();
+
+    public ParseManifest(File outputDirectory) throws IOException {
+        this.outputDirectory = outputDirectory;
+        this.previousDirectory = new File(outputDirectory, PREVIOUS_DIRECTORY);
+        
+        //The manifest of an interrupted run describes the files moved aside
+        File interrupted = new File(previousDirectory, MANIFEST_FILE);
+        load(interrupted.exists() ? interrupted : new File(outputDirectory, MANIFEST_FILE));
+    }
+
+    /**
+     * Record the parameter file of this run.
+     *
+     * @param parameterFile Null when all parameters are extracted
+     * @throws IOException
+     */
+    public void setParameterFile(String parameterFile) throws IOException {
+        config = parameterFile == null ? NO_CONFIG : hash(new File(parameterFile));
+    }
+
+    /**
+     * Move the manifest and the csv files of the previous run aside so that
+     * they can be copied from while the new ones are written. After an
+     * interrupted run the files already moved aside are kept and the
+     * partial csv files written since are removed.
+     *
+     * @throws IOException
+     */
+    public void movePreviousOutputs() throws IOException {
+        File previousManifest = new File(previousDirectory, MANIFEST_FILE);
+        if(!previousManifest.exists()){
+            //Left over from removing the moved files after a run
+            deletePreviousDirectory();
+            previousDirectory.mkdirs();
+
+            File manifest = new File(outputDirectory, MANIFEST_FILE);
+            if(manifest.exists()) move(manifest, previousManifest);
+        }
+
+        for(Entry entry : previous.values()){
+            for(String className : entry.rows.keySet()){
+                File csv = new File(outputDirectory, className + ".csv");
+                if(!csv.exists()) continue;
+
+                File target = new File(previousDirectory, className + ".csv");
+                if(target.exists()){
+                    if(!csv.delete()) throw new IOException("Cannot delete " + csv);
+                }else{
+                    move(csv, target);
+                }
+            }
+        }
+    }
+
+    /**
+     * The entry of the given file for this run.
+     *
+     * @param f
+     * @return Entry
+     * @throws IOException
+     */
+    public Entry entryFor(File f) throws IOException {
+        String path = f.getAbsolutePath();
+        Entry entry = current.get(path);
+        if(entry != null) return entry;
+
+        entry = new Entry();
+        entry.path = path;
+        entry.size = f.length();
+        entry.modified = f.lastModified();
+
+        Entry old = previous.get(path);
+        if(old != null && old.size == entry.size && old.modified == entry.modified){
+            entry.hash = old.hash;
+        }else{
+            entry.hash = hash(f);
+        }
+
+        current.put(path, entry);
+        return entry;
+    }
+
+    /**
+     * The previous entry of the file if the file has not changed and its
+     * rows are still available.
+     *
+     * @param f
+     * @return Entry or null
+     * @throws IOException
+     */
+    public Entry unchanged(File f) throws IOException {
+        Entry entry = entryFor(f);
+        Entry old = previous.get(entry.path);
+        if(old == null || old.size != entry.size || !old.hash.equals(entry.hash)){
+            return null;
+        }
+        if(!config.equals(previousConfig)) return null;
+
+        //Rows cannot be copied without the columns they were written with
+        if(old.columns.isEmpty() && !old.rows.isEmpty()) return null;
+
+        for(Map.Entry<String, long[]> me : old.rows.entrySet()){
+            long[] range = me.getValue();
+            if(range[0] + range[1] > previousRowCount(me.getKey())) return null;
+        }
+        return old;
+    }
+
+    /**
+     * Do not record the file in this run's manifest, so that it is parsed
+     * again by the next run.
+     *
+     * @param f
+     */
+    public void forget(File f){
+        current.remove(f.getAbsolutePath());
+    }
+
+    /**
+     * Data rows in the previous csv file of a className. 0 when the file is
+     * missing.
+     *
+     * @param className
+     * @return long
+     * @throws IOException
+     */
+    private long previousRowCount(String className) throws IOException {
+        Long count = previousRowCounts.get(className);
+        if(count != null) return count;
+
+        long rows = 0;
+        File csv = new File(previousDirectory, className + ".csv");
+        if(csv.exists()){
+            BufferedReader br = new BufferedReader(new FileReader(csv));
+            try{
+                if(br.readLine() != null){
+                    while(br.readLine() != null) rows++;
+                }
+            }finally{
+                br.close();
+            }
+        }
+        previousRowCounts.put(className, rows);
+        return rows;
+    }
+
+    /**
+     * Copy the rows a file produced in the previous run to the parser's
+     * csv files.
+     *
+     * @param old The previous entry of the file
+     * @param parser
+     * @throws IOException
+     */
+    public void copyRows(Entry old, HuaweiCMMOTreeParser parser) throws IOException {
+        for(String className : old.rows.keySet()){
+            if(!parser.getMOColumns().containsKey(className)){
+                uncopied.add(old.path);
+                throw new IOException("No columns for " + className
+                        + ", rows of " + old.path + " not copied");
+            }
+        }
+
+        Iterator<Map.Entry<String, long[]>> iter = old.rows.entrySet().iterator();
+        while(iter.hasNext()){
+            Map.Entry<String, long[]> me = iter.next();
+            String className = me.getKey();
+            MOCsvWriter writer = parser.getMOPrintWriter(className);
+
+            PreviousOutput in = previousOutputs.get(className);
+            if(in == null){
+                in = new PreviousOutput(new File(previousDirectory, className + ".csv"));
+                previousOutputs.put(className, in);
+            }
+            in.copy(me.getValue()[0], me.getValue()[1], writer,
+                    RowEncoder.headerFor(parser.getMOColumns().get(className)));
+        }
+    }
+
+    /**
+     * Write the manifest of this run and remove the previous csv files. Only
+     * called once the run has succeeded. The previous csv files are kept for
+     * the next run when rows of an unchanged file could not be copied.
+     *
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        for(PreviousOutput in : previousOutputs.values()){
+            in.close();
+        }
+        previousOutputs.clear();
+        if(!uncopied.isEmpty()){
+            throw new IOException("Rows of " + uncopied.get(0)
+                    + " were not copied, keeping the previous output");
+        }
+
+        File manifest = new File(outputDirectory, MANIFEST_FILE);
+        File written = new File(outputDirectory, MANIFEST_FILE + ".tmp");
+        PrintWriter pw = new PrintWriter(written);
+        pw.println("CONFIG\t" + config);
+        for(Entry entry : current.values()){
+            pw.println("FILE\t" + entry.path + "\t" + entry.size + "\t"
+                    + entry.modified + "\t" + entry.hash);
+            for(Map.Entry<String, Stack> me : entry.columns.entrySet()){
+                StringBuilder sb = new StringBuilder("COLUMNS\t").append(me.getKey());
+                for(Object p : me.getValue()){
+                    sb.append('\t').append(p);
+                }
+                pw.println(sb.toString());
+            }
+            for(Map.Entry<String, long[]> me : entry.rows.entrySet()){
+                pw.println("ROWS\t" + me.getKey() + "\t" + me.getValue()[0]
+                        + "\t" + me.getValue()[1]);
+            }
+        }
+        pw.close();
+        if(pw.checkError()) throw new IOException("Cannot write " + written);
+        move(written, manifest);
+
+        deletePreviousDirectory();
+    }
+
+    /**
+     * Remove the files moved aside, the manifest first so that what is left
+     * after an interruption is not taken for the output of an interrupted
+     * run.
+     */
+    private void deletePreviousDirectory(){
+        new File(previousDirectory, MANIFEST_FILE).delete();
+        File[] fList = previousDirectory.listFiles();
+        if(fList != null){
+            for(File f : fList) f.delete();
+        }
+        previousDirectory.delete();
+    }
+
+    private static void move(File from, File to) throws IOException {
+        Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load(File manifest) throws IOException {
+        if(!manifest.exists()) return;
+
+        BufferedReader br = new BufferedReader(new FileReader(manifest));
+        try{
+            Entry entry = null;
+            for(String line; (line = br.readLine()) != null; ) {
+                String[] f = line.split("\t");
+                if(f[0].equals("CONFIG")){
+                    previousConfig = f[1];
+                }else if(f[0].equals("FILE")){
+                    entry = new Entry();
+                    entry.path = f[1];
+                    entry.size = Long.parseLong(f[2]);
+                    entry.modified = Long.parseLong(f[3]);
+                    entry.hash = f[4];
+                    previous.put(entry.path, entry);
+                }else if(f[0].equals("COLUMNS") && entry != null){
+                    Stack columns = new Stack();
+                    for(int i = 2; i < f.length; i++) columns.push(f[i]);
+                    entry.columns.put(f[1], columns);
+                }else if(f[0].equals("ROWS") && entry != null){
+                    entry.rows.put(f[1], new long[]{
+                        Long.parseLong(f[2]), Long.parseLong(f[3])});
+                }
+            }
+        }finally{
+            br.close();
+        }
+    }
+
+    /**
+     * CRC32 of the file content.
+     *
+     * @param f
+     * @return String
+     * @throws IOException
+     */
+    static String hash(File f) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 20];
+        InputStream in = new FileInputStream(f);
+        try{
+            for(int n; (n = in.read(buffer)) > 0; ){
+                crc.update(buffer, 0, n);
+            }
+        }finally{
+            in.close();
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Split a csv row into its fields, keeping the quoting of each field.
+     *
+     * @param row
+     * @return List
+     */
+    static List<String> splitCSV(String row){
+        List<String> fields = new ArrayList<String>();
+        boolean inQuotes = false;
+        int start = 0;
+        for(int i = 0; i < row.length(); i++){
+            char c = row.charAt(i);
+            if(c == '"'){
+                inQuotes = !inQuotes;
+            }else if(c == ',' && !inQuotes){
+                fields.add(row.substring(start, i));
+                start = i + 1;
+            }
+        }
+        fields.add(row.substring(start));
+        return fields;
+    }
+
+    /**
+     * Sequential reader on a previous csv file.
+     */
+    private static class PreviousOutput {
+        private final File file;
+        private BufferedReader reader;
+        private String header;
+
+        /**
+         * Index of the next data row.
+         */
+        private long position;
+
+        /**
+         * Position of each previous column in the new header. Null when the
+         * headers are the same.
+         */
+        private int[] columnMap = null;
+
+        private String mappedHeader = null;
+
+        PreviousOutput(File file) throws IOException {
+            this.file = file;
+            open();
+        }
+
+        private void open() throws IOException {
+            if(reader != null) reader.close();
+            reader = new BufferedReader(new FileReader(file));
+            header = reader.readLine();
+            position = 0;
+        }
+
+        void copy(long first, long count, MOCsvWriter writer, String newHeader)
+                throws IOException {
+            if(first < position) open();
+            while(position < first){
+                if(reader.readLine() == null) throw new IOException(
+                        "Missing rows in " + file);
+                position++;
+            }
+
+            if(!newHeader.equals(header) && !newHeader.equals(mappedHeader)){
+                List<String> oldColumns = splitCSV(header);
+                List<String> newColumns = splitCSV(newHeader);
+                columnMap = new int[newColumns.size()];
+                for(int i = 0; i < newColumns.size(); i++){
+                    columnMap[i] = i < 2 ? i : oldColumns.indexOf(newColumns.get(i));
+                }
+                mappedHeader = newHeader;
+            }
+
+            for(long i = 0; i < count; i++){
+                String row = reader.readLine();
+                if(row == null) throw new IOException("Missing rows in " + file);
+                position++;
+
+                if(newHeader.equals(header)){
+                    writer.println(row, null);
+                    continue;
+                }
+
+                List<String> fields = splitCSV(row);
+                StringBuilder sb = new StringBuilder();
+                for(int c = 0; c < columnMap.length; c++){
+                    if(c > 0) sb.append(',');
+                    int from = columnMap[c];
+                    if(from >= 0 && from < fields.size()) sb.append(fields.get(from));
+                }
+                writer.println(sb.toString(), null);
+            }
+        }
+
+        void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Generic row encoder for the column layout of one className.
+ *
+ * Walks the column stack for every row, skipping the default columns, and
+ * writes the row into a reused buffer. The hottest classNames get a
+ * SpecialisedRowEncoder instead.
+ *
+ * An encoder is only valid for the column stack it was built from. When
+ * that stack grows the parser builds a new one.
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+class RowEncoder {
+
+    /**
+     * The column stack the encoder was built from.
+     */
+    private final Stack columns;
+
+    /**
+     * Size of the column stack when the encoder was built.
+     */
+    private final int columnCount;
+
+    /**
+     * The csv header.
+     */
+    final String header;
+
+    /**
+     * Reused row buffer.
+     */
+    final StringBuilder row = new StringBuilder(256);
+
+    RowEncoder(Stack columns){
+        this.columns = columns;
+        this.columnCount = columns.size();
+        header = headerFor(columns);
+    }
+
+    /**
+     * Whether the encoder can still be used for the given column stack.
+     *
+     * @param columns
+     * @return boolean
+     */
+    boolean isValidFor(Stack columns){
+        return columns == this.columns && columns.size() == columnCount;
+    }
+
+    /**
+     * Encode one row.
+     *
+     * @param fileName
+     * @param nodeName
+     * @param attrs
+     * @return String
+     */
+    String encode(String fileName, String nodeName, Map<String, String> attrs){
+        StringBuilder sb = row;
+        sb.setLength(0);
+        sb.append(fileName).append(',');
+        appendCSV(sb, nodeName);
+
+        for(int i = 0; i < columnCount; i++){
+            String p = columns.get(i).toString();
+            if(isDefaultColumn(p)) continue;
+
+            sb.append(',');
+            String value = attrs.get(p);
+            if(value != null) appendCSV(sb, value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Append a value in csv format: quoted when it holds a comma or a quote,
+     * with quotes doubled.
+     *
+     * @param sb
+     * @param s
+     */
+    static void appendCSV(StringBuilder sb, String s){
+        boolean hasComma = false;
+        boolean hasQuote = false;
+        for(int i = 0; i < s.length(); i++){
+            char c = s.charAt(i);
+            if(c == ',') hasComma = true;
+            else if(c == '"') hasQuote = true;
+        }
+
+        if(hasQuote){
+            sb.append('"');
+            for(int i = 0; i < s.length(); i++){
+                char c = s.charAt(i);
+                if(c == '"') sb.append('"');
+                sb.append(c);
+            }
+            sb.append('"');
+        }else if(hasComma){
+            sb.append('"').append(s).append('"');
+        }else{
+            sb.append(s);
+        }
+    }
+
+    /**
+     * Whether the column is one of the default columns written by the
+     * parser itself.
+     *
+     * @param p
+     * @return boolean
+     */
+    static boolean isDefaultColumn(String p){
+        return p.equalsIgnoreCase("filename") || p.equalsIgnoreCase("datetime")
+                || p.equalsIgnoreCase("nodename");
+    }
+
+    /**
+     * The csv header for the given column stack.
+     *
+     * @param columns
+     * @return String
+     */
+    static String headerFor(Stack columns){
+        StringBuilder sb = new StringBuilder("FILENAME,NODENAME");
+        for(int i = 0; i < columns.size(); i++){
+            String p = columns.get(i).toString();
+            if(isDefaultColumn(p)) continue;
+            sb.append(',').append(p);
+        }
+        return sb.toString();
+    }
+}
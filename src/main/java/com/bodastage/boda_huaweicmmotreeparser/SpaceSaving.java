@@ -0,0 +1,181 @@
+/*
+ *
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving frequent values counter.
+ *
+ * Keeps counts for at most capacity values. A value that is not counted
+ * replaces the value with the smallest count and takes over that count plus
+ * one, which is then its maximum overestimation. Any value occurring more
+ * often than rows / capacity is guaranteed to be counted.
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+final class SpaceSaving {
+
+    private final int capacity;
+
+    private final String[] values;
+
+    private final long[] counts;
+
+    private final long[] errors;
+
+    private int size = 0;
+
+    /**
+     * Whether a value has been replaced. Until then the counts are exact.
+     */
+    private boolean evicted = false;
+
+    /**
+     * Slot of each counted value.
+     */
+    private final Map<String, Integer> slots;
+
+    SpaceSaving(int capacity){
+        this.capacity = capacity;
+        this.values = new String[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.slots = new HashMap<String, Integer>(capacity * 2);
+    }
+
+    /**
+     * Count one occurrence of a value.
+     *
+     * @param value
+     */
+    void add(String value){
+        add(value, 1, 0);
+    }
+
+    private void add(String value, long count, long error){
+        Integer slot = slots.get(value);
+        if(slot != null){
+            counts[slot] += count;
+            errors[slot] += error;
+            return;
+        }
+
+        if(size < capacity){
+            put(size++, value, count, error);
+            return;
+        }
+
+        int min = minSlot();
+        slots.remove(values[min]);
+        put(min, value, counts[min] + count, counts[min] + error);
+        evicted = true;
+    }
+
+    private void put(int slot, String value, long count, long error){
+        values[slot] = value;
+        counts[slot] = count;
+        errors[slot] = error;
+        slots.put(value, slot);
+    }
+
+    private int minSlot(){
+        int min = 0;
+        for(int i = 1; i < size; i++){
+            if(counts[i] < counts[min]) min = i;
+        }
+        return min;
+    }
+
+    /**
+     * Whether the counts are exact, which is the case as long as no more
+     * than capacity distinct values were added.
+     *
+     * @return boolean
+     */
+    boolean isExact(){
+        return !evicted;
+    }
+
+    /**
+     * Number of values counted.
+     *
+     * @return int
+     */
+    int size(){
+        return size;
+    }
+
+    /**
+     * The most frequent values, most frequent first. Each entry holds the
+     * value and its count.
+     *
+     * @param k
+     * @return List
+     */
+    List<Map.Entry<String, Long>> top(int k){
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>();
+        for(int i = 0; i < size; i++){
+            entries.add(new java.util.AbstractMap.SimpleEntry<String, Long>(values[i], counts[i]));
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>(){
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b){
+                int c = b.getValue().compareTo(a.getValue());
+                return c != 0 ? c : a.getKey().compareTo(b.getKey());
+            }
+        });
+        return entries.subList(0, Math.min(k, entries.size()));
+    }
+
+    /**
+     * Add the counts of another counter of the same capacity.
+     *
+     * @param other
+     */
+    void merge(SpaceSaving other){
+        //Values missing from a full counter may have occurred up to its
+        //smallest count
+        long thisMin = size == capacity ? counts[minSlot()] : 0;
+        long otherMin = other.size == other.capacity ? other.counts[other.minSlot()] : 0;
+
+        Map<String, long[]> merged = new HashMap<String, long[]>();
+        for(int i = 0; i < size; i++){
+            merged.put(values[i], new long[]{counts[i] + otherMin, errors[i] + otherMin});
+        }
+        for(int i = 0; i < other.size; i++){
+            long[] c = merged.get(other.values[i]);
+            if(c != null){
+                c[0] += other.counts[i] - otherMin;
+                c[1] += other.errors[i] - otherMin;
+            }else{
+                merged.put(other.values[i], new long[]{other.counts[i] + thisMin,
+                    other.errors[i] + thisMin});
+            }
+        }
+
+        List<Map.Entry<String, long[]>> entries
+                = new ArrayList<Map.Entry<String, long[]>>(merged.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>(){
+            @Override
+            public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b){
+                return Long.compare(b.getValue()[0], a.getValue()[0]);
+            }
+        });
+
+        evicted = evicted || other.evicted || entries.size() > capacity;
+        slots.clear();
+        size = 0;
+        for(Map.Entry<String, long[]> me : entries){
+            if(size == capacity) break;
+            put(size++, me.getKey(), me.getValue()[0], me.getValue()[1]);
+        }
+    }
+}
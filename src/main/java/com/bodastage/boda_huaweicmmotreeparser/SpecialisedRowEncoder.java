@@ -0,0 +1,113 @@
+/*
+ *
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Row encoder generated at runtime for the column layout of a hot className.
+ *
+ * The columns are compiled into a method handle tree with the column names
+ * bound as constants in slot order and the default columns left out, so
+ * nothing is looked up in the column stack per row. The handles are combined
+ * as a balanced tree to keep the call depth low enough for the JIT to inline
+ * the whole row.
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+final class SpecialisedRowEncoder extends RowEncoder {
+
+    /**
+     * (StringBuilder, Map, String)void appending one column.
+     */
+    private static final MethodHandle APPEND_SLOT;
+
+    /**
+     * (StringBuilder, Map)void for a className without columns.
+     */
+    private static final MethodHandle NO_SLOTS;
+
+    static {
+        try{
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            APPEND_SLOT = lookup.findStatic(SpecialisedRowEncoder.class, "appendSlot",
+                    MethodType.methodType(void.class, StringBuilder.class, Map.class,
+                            String.class));
+            NO_SLOTS = lookup.findStatic(SpecialisedRowEncoder.class, "noSlots",
+                    MethodType.methodType(void.class, StringBuilder.class, Map.class));
+        }catch(ReflectiveOperationException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * (StringBuilder, Map)void appending all columns after NODENAME.
+     */
+    private final MethodHandle slots;
+
+    SpecialisedRowEncoder(Stack columns){
+        super(columns);
+
+        List<String> names = new ArrayList<String>();
+        for(int i = 0; i < columns.size(); i++){
+            String p = columns.get(i).toString();
+            if(isDefaultColumn(p)) continue;
+            names.add(p);
+        }
+        slots = names.isEmpty() ? NO_SLOTS : chain(names, 0, names.size());
+    }
+
+    /**
+     * Handle appending the columns from, inclusive, to to, exclusive.
+     *
+     * @param names
+     * @param from
+     * @param to
+     * @return MethodHandle
+     */
+    private static MethodHandle chain(List<String> names, int from, int to){
+        if(to - from == 1){
+            return MethodHandles.insertArguments(APPEND_SLOT, 2, names.get(from));
+        }
+
+        //The first half runs as the combiner, then the second half
+        int middle = (from + to) >>> 1;
+        return MethodHandles.foldArguments(chain(names, middle, to),
+                chain(names, from, middle));
+    }
+
+    @Override
+    String encode(String fileName, String nodeName, Map<String, String> attrs){
+        StringBuilder sb = row;
+        sb.setLength(0);
+        sb.append(fileName).append(',');
+        appendCSV(sb, nodeName);
+        try{
+            slots.invokeExact(sb, (Map) attrs);
+        }catch(RuntimeException e){
+            throw e;
+        }catch(Error e){
+            throw e;
+        }catch(Throwable e){
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    private static void appendSlot(StringBuilder sb, Map attrs, String name){
+        sb.append(',');
+        Object value = attrs.get(name);
+        if(value != null) appendCSV(sb, (String) value);
+    }
+
+    private static void noSlots(StringBuilder sb, Map attrs){
+    }
+}
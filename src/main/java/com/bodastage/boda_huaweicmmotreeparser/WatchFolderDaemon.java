@@ -0,0 +1,318 @@
+/*
+ * Watches an input directory and parses dumps as they arrive.
+ */
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long running daemon mode.
+ *
+ * The input directory is scanned every poll interval. A file is queued once
+ * its size and modification time have not changed between two scans. Queued
+ * files are parsed on a fixed worker pool using a pool of parser instances
+ * that are reset and reused between jobs so that the JVM, the StAX factories
+ * and the parameter configuration stay warm. Each dump is written to its own
+ * sub directory of the output directory, named after the dump's file name,
+ * and is then moved to the done directory. Dumps that fail are moved to the
+ * failed sub directory of the done directory.
+ *
+ * @author info@bodastage.com
+ * @since 2.1.0
+ */
+public class WatchFolderDaemon {
+
+    /**
+     * Directory watched for new dumps.
+     */
+    private final File inputDirectory;
+
+    /**
+     * Directory under which each dump's csv files are written.
+     */
+    private final File outputDirectory;
+
+    /**
+     * Directory parsed dumps are moved to.
+     */
+    private final File doneDirectory;
+
+    /**
+     * Number of worker threads.
+     */
+    private final int threads;
+
+    /**
+     * Milliseconds between directory scans.
+     */
+    private long pollInterval = 5000;
+
+    /**
+     * Optional parameter configuration file shared by all parser instances.
+     */
+    private String parameterFile = null;
+
+    private OutputRotation outputRotation = OutputRotation.NONE;
+
+    private NeFilter neFilter = null;
+
+    private boolean columnStats = false;
+
+    /**
+     * Parser instances available to the workers.
+     */
+    private final BlockingQueue<HuaweiCMMOTreeParser> parserPool;
+
+    /**
+     * Size and modification time seen on the previous scan for files that
+     * are not yet queued.
+     */
+    private final Map<String, String> pendingFiles = new HashMap<String, String>();
+
+    /**
+     * Files queued or being parsed.
+     */
+    private final Set<String> inFlightFiles = new HashSet<String>();
+
+    private volatile boolean running = true;
+
+    public WatchFolderDaemon(File inputDirectory, File outputDirectory,
+            File doneDirectory, int threads){
+        this.inputDirectory = inputDirectory;
+        this.outputDirectory = outputDirectory;
+        this.doneDirectory = doneDirectory;
+        this.threads = threads < 1 ? 1 : threads;
+        this.parserPool = new ArrayBlockingQueue<HuaweiCMMOTreeParser>(this.threads);
+    }
+
+    /**
+     * Set the time between directory scans.
+     *
+     * @param seconds
+     */
+    public void setPollInterval(long seconds){
+        pollInterval = seconds * 1000;
+    }
+
+    void setPollIntervalMillis(long millis){
+        pollInterval = millis;
+    }
+
+    /**
+     * Set the parameter configuration file.
+     *
+     * @param filename
+     */
+    public void setParameterFile(String filename){
+        parameterFile = filename;
+    }
+
+    /**
+     * Set the output file rotation and sharding.
+     *
+     * @param rotation
+     */
+    public void setOutputRotation(OutputRotation rotation){
+        outputRotation = rotation;
+    }
+
+    /**
+     * Parse only the network elements selected by the filter.
+     *
+     * @param filter
+     */
+    public void setNeFilter(NeFilter filter){
+        neFilter = filter;
+    }
+
+    /**
+     * Collect statistics of the values written per className column.
+     *
+     * @param enabled
+     */
+    public void setColumnStats(boolean enabled){
+        columnStats = enabled;
+    }
+
+    /**
+     * Stop scanning. Jobs already queued are completed.
+     */
+    public void stop(){
+        running = false;
+    }
+
+    /**
+     * Run the daemon until it is stopped.
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        for(int i = 0; i < threads; i++){
+            HuaweiCMMOTreeParser parser = new HuaweiCMMOTreeParser();
+            if(parameterFile != null){
+                parser.setParameterFile(parameterFile);
+                parser.getParametersToExtract(parameterFile);
+            }
+            parser.setOutputRotation(outputRotation);
+            parser.setNeFilter(neFilter);
+            if(columnStats) parser.setColumnStats(new ColumnStatistics());
+            parser.resetParser();
+            parserPool.add(parser);
+        }
+
+        new File(doneDirectory, "failed").mkdirs();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        System.out.println("Watching " + inputDirectory.getAbsolutePath()
+                + " with " + threads + " worker(s)...");
+
+        try{
+            while(running){
+                scan(executor);
+                Thread.sleep(pollInterval);
+            }
+        }finally{
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Queue files whose size and modification time did not change since the
+     * previous scan.
+     *
+     * @param executor
+     */
+    private void scan(ExecutorService executor){
+        File[] fList = inputDirectory.listFiles();
+        if(fList == null) return;
+
+        Set<String> seen = new HashSet<String>();
+        for(File f : fList){
+            String name = f.getName();
+            if(!f.isFile() || name.startsWith(".") || name.endsWith(".tmp")
+                    || name.endsWith(".part")) continue;
+
+            String path = f.getAbsolutePath();
+            seen.add(path);
+
+            synchronized(inFlightFiles){
+                if(inFlightFiles.contains(path)) continue;
+            }
+
+            String signature = f.length() + ":" + f.lastModified();
+            if(!signature.equals(pendingFiles.get(path))){
+                pendingFiles.put(path, signature);
+                continue;
+            }
+
+            pendingFiles.remove(path);
+            synchronized(inFlightFiles){
+                inFlightFiles.add(path);
+            }
+            executor.submit(new ParseJob(f));
+        }
+
+        pendingFiles.keySet().retainAll(seen);
+    }
+
+    /**
+     * Parse one dump with a pooled parser instance.
+     */
+    private class ParseJob implements Runnable {
+
+        private final File file;
+
+        ParseJob(File file){
+            this.file = file;
+        }
+
+        @Override
+        public void run(){
+            HuaweiCMMOTreeParser parser = null;
+            File target = doneDirectory;
+            long start = System.currentTimeMillis();
+            try{
+                parser = parserPool.take();
+
+                File jobOutputDirectory = createJobOutputDirectory(file.getName());
+
+                parser.resetParser();
+                parser.setDataSource(file.getAbsolutePath());
+                parser.setOutputDirectory(jobOutputDirectory.getAbsolutePath());
+                parser.parse();
+
+                System.out.println("Parsed " + file.getName() + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }catch(Exception e){
+                System.out.println(e.getMessage());
+                System.out.println("Failed to parse file: " + file.getName());
+                target = new File(doneDirectory, "failed");
+            }finally{
+                if(parser != null){
+                    parser.resetParser();
+                    parserPool.add(parser);
+                }
+                moveFile(file, target);
+                synchronized(inFlightFiles){
+                    inFlightFiles.remove(file.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Create the output directory of a job. It is named after the dump and 
+     * gets a -1, -2, ... suffix when a directory of that name exists, for 
+     * example when a dump of the same name is delivered again.
+     *
+     * @param name The dump's file name
+     * @return File
+     * @throws IOException
+     */
+    private File createJobOutputDirectory(String name) throws IOException {
+        outputDirectory.mkdirs();
+        File directory = new File(outputDirectory, name);
+        
+        //mkdir fails when the directory exists, also when another job 
+        //created it in the meantime
+        for(int i = 1; !directory.mkdir(); i++){
+            if(!directory.exists()){
+                throw new IOException("Cannot create " + directory.getAbsolutePath());
+            }
+            directory = new File(outputDirectory, name + "-" + i);
+        }
+        return directory;
+    }
+
+    /**
+     * Move a file into the given directory.
+     *
+     * @param file
+     * @param directory
+     */
+    private void moveFile(File file, File directory){
+        Path target = directory.toPath().resolve(file.getName());
+        try{
+            Files.move(file.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+        }catch(IOException e){
+            System.out.println("Could not move " + file.getName() + " to "
+                    + directory.getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+}
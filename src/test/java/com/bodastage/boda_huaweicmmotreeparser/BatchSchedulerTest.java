@@ -0,0 +1,45 @@
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Batch scheduler tests.
+ */
+public class BatchSchedulerTest extends ParserTestCase
+{
+    /**
+     * Files are scheduled largest first and the merged headers follow the
+     * directory listing order.
+     */
+    public void testLargestFirstWithMergedColumns() throws Exception
+    {
+        File in = new File(workDirectory, "in");
+        in.mkdirs();
+        writeNeDump(new File(in, "small.xml"), "NE=S",
+                "<attr name=\"name\">S</attr><attr name=\"A\">1</attr>");
+        writeNeDump(new File(in, "large.xml"), "NE=L",
+                "<attr name=\"name\">L</attr><attr name=\"B\">2</attr>"
+                + "<attr name=\"C\">" + new String(new char[512]).replace('\0', 'x')
+                + "</attr>");
+
+        File out = new File(workDirectory, "out");
+        out.mkdirs();
+        BatchScheduler scheduler = new BatchScheduler(in, out.getAbsolutePath());
+        scheduler.setMaxThreads(2);
+
+        List<Integer> order = scheduler.schedule();
+        assertEquals(2, order.size());
+        assertEquals("large.xml", scheduler.getFiles().get(order.get(0)).getName());
+
+        scheduler.run();
+
+        List<String> rows = readLines(
+                new File(out, "BSC6900GSMNE.csv"));
+        assertEquals(3, rows.size());
+
+        String header = rows.get(0);
+        assertTrue(header.startsWith("FILENAME,NODENAME,"));
+        assertEquals(6, header.split(",").length);
+    }
+}
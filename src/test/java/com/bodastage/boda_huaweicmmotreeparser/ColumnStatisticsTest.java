@@ -0,0 +1,76 @@
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Column statistics tests.
+ */
+public class ColumnStatisticsTest extends ParserTestCase
+{
+    /**
+     * Small columns get exact counts, large ones an estimate within a few
+     * percent, and merging two halves gives the statistics of the whole.
+     */
+    public void testCountsAndMerge() throws Exception
+    {
+        Stack columns = new Stack();
+        columns.push("FDN");
+        columns.push("STATE");
+        columns.push("FREQ");
+
+        ColumnStatistics first = new ColumnStatistics();
+        ColumnStatistics second = new ColumnStatistics();
+        for(int i = 0; i < 10000; i++){
+            Map<String, String> attrs = new HashMap<String, String>();
+            attrs.put("FDN", "NE=1,CELL=" + i);
+            if(i % 4 != 0) attrs.put("STATE", i % 3 == 0 ? "LOCKED" : "ENABLED");
+            attrs.put("FREQ", String.valueOf(i % 50 - 10));
+            (i < 5000 ? first : second).add("CELL", columns, attrs);
+        }
+        first.merge(second);
+
+        ColumnStatistics.Stats fdn = first.get("CELL", "FDN");
+        assertEquals(10000, fdn.rows);
+        assertEquals(0, fdn.empty);
+        assertTrue("estimate " + fdn.distinctCount(),
+                Math.abs(fdn.distinctCount() - 10000) < 1000);
+
+        ColumnStatistics.Stats state = first.get("CELL", "STATE");
+        assertEquals(2500, state.empty);
+        assertEquals(2, state.distinctCount());
+        assertEquals("ENABLED", state.getMin());
+        assertEquals("LOCKED", state.getMax());
+
+        ColumnStatistics.Stats freq = first.get("CELL", "FREQ");
+        assertEquals(50, freq.distinctCount());
+        assertEquals("-10", freq.getMin());
+        assertEquals("39", freq.getMax());
+        assertNull(first.get("CELL", "NAME"));
+
+        first.write(workDirectory.getAbsolutePath());
+        List<String> lines = readLines(new File(workDirectory, ColumnStatistics.STATS_FILE));
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0).startsWith("CLASSNAME,COLUMN,ROWS,EMPTY,EMPTY_RATIO,DISTINCT,MIN,MAX,TOP1,TOP1_COUNT"));
+        assertEquals("CELL,STATE,10000,2500,0.2500,2,ENABLED,LOCKED,ENABLED,5000,LOCKED,2500,,,,,,",
+                lines.get(2));
+    }
+
+    /**
+     * A value more frequent than rows / capacity stays among the most
+     * frequent values however many other values there are.
+     */
+    public void testFrequentValueSurvivesEviction() throws Exception
+    {
+        SpaceSaving top = new SpaceSaving(ColumnStatistics.TOP_K_CAPACITY);
+        for(int i = 0; i < 20000; i++){
+            top.add(i % 5 == 0 ? "HOT" : "V" + i);
+        }
+        assertFalse(top.isExact());
+        assertEquals("HOT", top.top(1).get(0).getKey());
+        assertTrue(top.top(1).get(0).getValue() >= 4000);
+    }
+}
@@ -0,0 +1,112 @@
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Distributed coordinator tests.
+ */
+public class DistributedCoordinatorTest extends ParserTestCase
+{
+    /**
+     * Two local worker processes give the same rows and header as a single
+     * parser on the same directory.
+     */
+    public void testWorkersMatchSequentialRun() throws Exception
+    {
+        File in = new File(workDirectory, "in");
+        in.mkdirs();
+        writeNeDump(new File(in, "a.xml"), "NE=A",
+                "<attr name=\"name\">A</attr><attr name=\"X\">1</attr>");
+        writeNeDump(new File(in, "b.xml"), "NE=B",
+                "<attr name=\"name\">B</attr><attr name=\"Y\">2</attr>");
+        writeNeDump(new File(in, "c.xml"), "NE=C",
+                "<attr name=\"name\">C</attr><attr name=\"X\">3</attr><attr name=\"Z\">4</attr>");
+
+        File sequential = new File(workDirectory, "sequential");
+        sequential.mkdirs();
+        HuaweiCMMOTreeParser parser = new HuaweiCMMOTreeParser();
+        parser.setDataSource(in.getAbsolutePath());
+        parser.setOutputDirectory(sequential.getAbsolutePath());
+        parser.parse();
+
+        File distributed = new File(workDirectory, "distributed");
+        distributed.mkdirs();
+        DistributedCoordinator coordinator = new DistributedCoordinator(in, distributed, 2);
+        assertEquals(2, coordinator.partition().size());
+        coordinator.run();
+
+        assertFalse(new File(distributed, DistributedCoordinator.WORK_DIRECTORY).exists());
+
+        List<String> expected = readLines(
+                new File(sequential, "BSC6900GSMNE.csv"));
+        List<String> actual = readLines(
+                new File(distributed, "BSC6900GSMNE.csv"));
+        assertEquals(4, actual.size());
+        assertEquals(toRecords(expected), toRecords(actual));
+    }
+
+    /**
+     * A launcher that joins its arguments and has a shell parse them again,
+     * as ssh does, gets the worker command line intact: a filter with shell
+     * syntax and paths with spaces.
+     */
+    public void testLauncherGetsQuotedArguments() throws Exception
+    {
+        assertEquals("'it'\\''s'", DistributedCoordinator.shellQuote("it's"));
+
+        File in = new File(workDirectory, "in put");
+        in.mkdirs();
+        writeNeDump(new File(in, "a.xml"), "NE=A", "<attr name=\"name\">A</attr>");
+        writeNeDump(new File(in, "b.xml"), "NE=B", "<attr name=\"name\">B</attr>");
+        writeNeDump(new File(in, "c.xml"), "NE=C", "<attr name=\"name\">C</attr>");
+
+        File launcher = new File(workDirectory, "launcher.sh");
+        writeLines(launcher, "#!/bin/sh", "shift", "exec sh -c \"$*\"");
+        launcher.setExecutable(true);
+
+        File out = new File(workDirectory, "out put");
+        out.mkdirs();
+        DistributedCoordinator coordinator = new DistributedCoordinator(in, out, 2);
+        coordinator.setWorkerLauncher(launcher.getAbsolutePath() + " {worker}");
+        coordinator.setNeFilter(new NeFilter("regex:NE=(A|C)"));
+
+        List<String> command = coordinator.workerCommand(1, new ArrayList<String>());
+        assertEquals(launcher.getAbsolutePath(), command.get(0));
+        assertEquals("1", command.get(1));
+        for(String entry : command.get(4).replace("'", "").split(File.pathSeparator)){
+            assertTrue(entry, new File(entry).isAbsolute());
+        }
+
+        coordinator.run();
+
+        Set<Map<String, String>> records = toRecords(readLines(new File(out, "BSC6900GSMNE.csv")));
+        assertEquals(2, records.size());
+        for(Map<String, String> record : records){
+            assertFalse(record.get("NODENAME").equals("B"));
+        }
+    }
+
+    /**
+     * Rows as column to value maps so that the column order does not matter.
+     */
+    private Set<Map<String, String>> toRecords(List<String> lines)
+    {
+        String[] header = lines.get(0).split(",", -1);
+        Set<Map<String, String>> records = new HashSet<Map<String, String>>();
+        for(String line : lines.subList(1, lines.size())){
+            String[] values = line.split(",", -1);
+            Map<String, String> record = new HashMap<String, String>();
+            for(int i = 0; i < header.length; i++){
+                record.put(header[i], values[i]);
+            }
+            records.add(record);
+        }
+        return records;
+    }
+}
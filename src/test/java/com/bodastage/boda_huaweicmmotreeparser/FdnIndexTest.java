@@ -0,0 +1,84 @@
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import junit.framework.TestCase;
+
+/**
+ * Fdn index tests.
+ */
+public class FdnIndexTest extends TestCase
+{
+    /**
+     * The newest instance wins, ties go to the file that sorts last and
+     * entries survive the table growing.
+     */
+    public void testNewestInstanceWins() throws Exception
+    {
+        FdnIndex index = new FdnIndex(null);
+        try{
+            int daily = index.fileId("/data/dump_daily.xml");
+            int hourly = index.fileId("/data/dump_hourly.xml");
+
+            index.update("CELL", "NE=1,CELL=1", 100, daily);
+            index.update("CELL", "NE=1,CELL=1", 200, hourly);
+            index.update("CELL", "NE=1,CELL=2", 300, daily);
+            index.update("CELL", "NE=1,CELL=2", 200, hourly);
+            index.update("CELL", "NE=1,CELL=3", 100, hourly);
+            index.update("CELL", "NE=1,CELL=3", 100, daily);
+
+            assertFalse(index.isLatest("CELL", "NE=1,CELL=1", 100, daily));
+            assertTrue(index.isLatest("CELL", "NE=1,CELL=1", 200, hourly));
+            assertTrue(index.isLatest("CELL", "NE=1,CELL=2", 300, daily));
+            assertFalse(index.isLatest("CELL", "NE=1,CELL=2", 200, hourly));
+            assertTrue(index.isLatest("CELL", "NE=1,CELL=3", 100, hourly));
+            assertTrue(index.isLatest("TRX", "NE=1,CELL=3", 100, daily));
+
+            int count = (int) FdnIndex.INITIAL_CAPACITY;
+            for(int i = 0; i < count; i++){
+                index.update("TRX", "NE=1,TRX=" + i, i, daily);
+            }
+            assertEquals(3 + count, index.size());
+            assertTrue(index.isLatest("CELL", "NE=1,CELL=1", 200, hourly));
+            assertTrue(index.isLatest("TRX", "NE=1,TRX=7", 7, daily));
+            assertFalse(index.isLatest("TRX", "NE=1,TRX=7", 8, daily));
+        }finally{
+            index.close();
+        }
+    }
+
+    /**
+     * Doubling the table releases the mappings of the old table file, and
+     * closing the index releases the last one.
+     */
+    public void testResizeReleasesOldMappings() throws Exception
+    {
+        File maps = new File("/proc/self/maps");
+        if(!maps.exists()) return;
+
+        File directory = Files.createTempDirectory("fdnindex").toFile();
+        FdnIndex index = new FdnIndex(directory);
+        try{
+            int count = (int) FdnIndex.INITIAL_CAPACITY * 4;
+            for(int i = 0; i < count; i++){
+                index.update("TRX", "NE=1,TRX=" + i, i, 0);
+            }
+            assertEquals(1, mappedTables(maps, directory));
+        }finally{
+            index.close();
+        }
+        assertEquals(0, mappedTables(maps, directory));
+        assertEquals(0, directory.list().length);
+        directory.delete();
+    }
+
+    private int mappedTables(File maps, File directory) throws Exception
+    {
+        int count = 0;
+        for(String line : Files.readAllLines(maps.toPath(), StandardCharsets.UTF_8)){
+            if(line.contains(directory.getAbsolutePath())) count++;
+        }
+        return count;
+    }
+}
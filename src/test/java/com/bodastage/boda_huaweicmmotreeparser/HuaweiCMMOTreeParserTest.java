@@ -0,0 +1,293 @@
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Parser output tests.
+ */
+public class HuaweiCMMOTreeParserTest extends ParserTestCase
+{
+    /**
+     * Attributes of a parent MO collected after its children close are
+     * written to the parent's row.
+     */
+    public void testParentAttributesAroundChildren() throws Exception
+    {
+        File dump = writeDump("nested.xml",
+            "<MOTree>",
+            "<MO className=\"BSC6900GSMNE\" fdn=\"NE=BSC1\">",
+            "<attr name=\"name\">BSC1</attr>",
+            "<MO className=\"BSC6900GSMABISE1T1\" fdn=\"NE=BSC1,ABISE1T1=1\">",
+            "<attr name=\"MOIndex\">1</attr>",
+            "</MO>",
+            "<attr name=\"IP\">10.0.0.1</attr>",
+            "</MO>",
+            "</MOTree>");
+
+        File out = parse(dump);
+
+        List<String> ne = readLines(new File(out, "BSC6900GSMNE.csv"));
+        assertEquals("FILENAME,NODENAME,name,IP", ne.get(0));
+        assertEquals("nested.xml,BSC1,BSC1,10.0.0.1", ne.get(1));
+        assertEquals(2, ne.size());
+
+        List<String> abis = readLines(new File(out, "BSC6900GSMABISE1T1.csv"));
+        assertEquals("FILENAME,NODENAME,MOIndex", abis.get(0));
+        assertEquals("nested.xml,BSC1,1", abis.get(1));
+        assertEquals(2, abis.size());
+    }
+
+    /**
+     * An incremental run reuses the rows of unchanged files, also when a
+     * changed file adds columns.
+     */
+    public void testIncrementalRunReusesUnchangedFiles() throws Exception
+    {
+        File in = new File(workDirectory, "in");
+        in.mkdirs();
+        File out = new File(workDirectory, "out");
+        out.mkdirs();
+
+        writeDump("in/a.xml", "<MOTree><MO className=\"NE\" fdn=\"NE=A\">",
+            "<attr name=\"name\">A</attr><attr name=\"X\">a,1</attr></MO></MOTree>");
+        writeDump("in/b.xml", "<MOTree><MO className=\"NE\" fdn=\"NE=B\">",
+            "<attr name=\"name\">B</attr><attr name=\"X\">b</attr></MO></MOTree>");
+        parseIncremental(in, out);
+
+        writeDump("in/b.xml", "<MOTree><MO className=\"NE\" fdn=\"NE=B\">",
+            "<attr name=\"name\">B</attr><attr name=\"Y\">y</attr></MO></MOTree>");
+        parseIncremental(in, out);
+
+        List<String> rows = readLines(new File(out, "NE.csv"));
+        assertEquals(3, rows.size());
+        //Column order follows the directory listing
+        if(rows.get(0).equals("FILENAME,NODENAME,name,X,Y")){
+            assertTrue(rows.contains("a.xml,A,A,\"a,1\","));
+            assertTrue(rows.contains("b.xml,B,B,,y"));
+        }else{
+            assertEquals("FILENAME,NODENAME,name,Y,X", rows.get(0));
+            assertTrue(rows.contains("a.xml,A,A,,\"a,1\""));
+            assertTrue(rows.contains("b.xml,B,B,y,"));
+        }
+        assertFalse(new File(out, ParseManifest.PREVIOUS_DIRECTORY).exists());
+    }
+
+    /**
+     * A changed parameter file, or dropping it, parses the unchanged files
+     * again instead of copying rows written with other columns.
+     */
+    public void testIncrementalRunFollowsParameterFile() throws Exception
+    {
+        File in = new File(workDirectory, "in");
+        in.mkdirs();
+        File out = new File(workDirectory, "out");
+        out.mkdirs();
+        File parameters = new File(workDirectory, "parameters.cfg");
+
+        writeDump("in/a.xml", "<MOTree><MO className=\"NE\" fdn=\"NE=A\">",
+            "<attr name=\"name\">A</attr><attr name=\"X\">xa</attr></MO></MOTree>");
+        writeLines(parameters, "NE:name");
+        parseIncremental(in, out, parameters);
+        assertEquals(Arrays.asList("FILENAME,NODENAME,name", "a.xml,A,A"),
+                readLines(new File(out, "NE.csv")));
+
+        //Same parameters, the rows are reused
+        parseIncremental(in, out, parameters);
+        assertEquals(Arrays.asList("FILENAME,NODENAME,name", "a.xml,A,A"),
+                readLines(new File(out, "NE.csv")));
+        assertTrue(readLines(new File(out, ParseManifest.MANIFEST_FILE))
+                .contains("COLUMNS\tNE\tname"));
+
+        writeLines(parameters, "NE:name,X");
+        parseIncremental(in, out, parameters);
+        assertEquals(Arrays.asList("FILENAME,NODENAME,name,X", "a.xml,A,A,xa"),
+                readLines(new File(out, "NE.csv")));
+
+        parseIncremental(in, out, null);
+        assertEquals(Arrays.asList("FILENAME,NODENAME,name,X", "a.xml,A,A,xa"),
+                readLines(new File(out, "NE.csv")));
+        parseIncremental(in, out, null);
+        assertEquals(Arrays.asList("FILENAME,NODENAME,name,X", "a.xml,A,A,xa"),
+                readLines(new File(out, "NE.csv")));
+        assertFalse(new File(out, ParseManifest.PREVIOUS_DIRECTORY).exists());
+    }
+
+    /**
+     * After interrupted runs the rows moved aside are kept and used again,
+     * and a file whose rows are missing is parsed again.
+     */
+    public void testInterruptedIncrementalRunKeepsPreviousRows() throws Exception
+    {
+        File in = new File(workDirectory, "in");
+        in.mkdirs();
+        File out = new File(workDirectory, "out");
+        out.mkdirs();
+
+        writeDump("in/a.xml", "<MOTree><MO className=\"NE\" fdn=\"NE=A\">",
+            "<attr name=\"name\">A</attr><attr name=\"X\">a</attr></MO></MOTree>");
+        parseIncremental(in, out);
+        List<String> expected = readLines(new File(out, "NE.csv"));
+        List<String> header = expected.subList(0, 1);
+
+        //Killed twice after writing a partial csv
+        for(int i = 0; i < 2; i++){
+            new ParseManifest(out).movePreviousOutputs();
+            Files.write(new File(out, "NE.csv").toPath(), header);
+        }
+        File previous = new File(out, ParseManifest.PREVIOUS_DIRECTORY);
+        assertEquals(expected, readLines(new File(previous, "NE.csv")));
+
+        parseIncremental(in, out);
+        assertEquals(expected, readLines(new File(out, "NE.csv")));
+        assertFalse(previous.exists());
+
+        //Rows lost from the previous output
+        new ParseManifest(out).movePreviousOutputs();
+        Files.write(new File(previous, "NE.csv").toPath(), header);
+        parseIncremental(in, out);
+        assertEquals(expected, readLines(new File(out, "NE.csv")));
+        parseIncremental(in, out);
+        assertEquals(expected, readLines(new File(out, "NE.csv")));
+    }
+
+    /**
+     * With an fdn index only the newest instance of an MO found in
+     * overlapping dumps is written: by file time, by the export time
+     * attribute where the MO has it, and with a parameter file.
+     */
+    public void testDedupeKeepsNewestInstance() throws Exception
+    {
+        File in = new File(workDirectory, "in");
+        in.mkdirs();
+        writeDump("in/old.xml",
+            "<MOTree><MO className=\"NE\" fdn=\"NE=A\"><attr name=\"name\">A</attr>",
+            "<attr name=\"X\">old</attr><attr name=\"T\">2020-01-02 00:00:00</attr></MO>",
+            "<MO className=\"NE\" fdn=\"NE=B\"><attr name=\"name\">B</attr>",
+            "<attr name=\"X\">old</attr></MO></MOTree>")
+            .setLastModified(1000000000000L);
+        writeDump("in/new.xml",
+            "<MOTree><MO className=\"NE\" fdn=\"NE=A\"><attr name=\"name\">A</attr>",
+            "<attr name=\"X\">new</attr><attr name=\"T\">2020-01-01 00:00:00</attr></MO>",
+            "<MO className=\"NE\" fdn=\"NE=B\"><attr name=\"name\">B</attr>",
+            "<attr name=\"X\">new</attr></MO></MOTree>")
+            .setLastModified(2000000000000L);
+        File parameters = writeLines(new File(workDirectory, "parameters.cfg"), "NE:name,X");
+
+        assertEquals(new HashSet<String>(Arrays.asList(
+                "new.xml,A,A,new,2020-01-01 00:00:00", "new.xml,B,B,new")),
+                dedupe(in, null, null));
+
+        //The export time of NE=A outranks the file time
+        assertEquals(new HashSet<String>(Arrays.asList(
+                "old.xml,A,A,old,2020-01-02 00:00:00", "new.xml,B,B,new")),
+                dedupe(in, "T", null));
+
+        assertEquals(new HashSet<String>(Arrays.asList(
+                "new.xml,A,A,new", "new.xml,B,B,new")),
+                dedupe(in, null, parameters));
+    }
+
+    /**
+     * Parse the directory with a new fdn index and return the NE rows,
+     * without trailing empty values.
+     */
+    private Set<String> dedupe(File in, String timeAttr, File parameters) throws Exception
+    {
+        File out = new File(workDirectory, "dedupe");
+        deleteRecursively(out);
+        out.mkdirs();
+
+        HuaweiCMMOTreeParser parser = new HuaweiCMMOTreeParser();
+        if(parameters != null){
+            parser.setParameterFile(parameters.getAbsolutePath());
+            parser.getParametersToExtract(parameters.getAbsolutePath());
+            parser.setParserState(ParserStates.EXTRACTING_VALUES);
+        }
+        FdnIndex index = new FdnIndex(out);
+        try{
+            parser.setFdnIndex(index, timeAttr);
+            parser.setDataSource(in.getAbsolutePath());
+            parser.setOutputDirectory(out.getAbsolutePath());
+            parser.parse();
+        }finally{
+            index.close();
+        }
+
+        List<String> rows = readLines(new File(out, "NE.csv"));
+        Set<String> result = new HashSet<String>();
+        for(String row : rows.subList(1, rows.size())){
+            result.add(row.replaceAll(",+$", ""));
+        }
+        assertEquals(rows.size() - 1, result.size());
+        return result;
+    }
+
+    /**
+     * A gzip compressed dump is parsed in a single pass to the multiplexed
+     * output. New columns are announced with a new header record.
+     */
+    public void testMultiplexedOutputFromGzip() throws Exception
+    {
+        File dump = writeDump("grow.xml",
+            "<MOTree><MO className=\"NE\" fdn=\"NE=A\">",
+            "<attr name=\"name\">A</attr></MO>",
+            "<MO className=\"NE\" fdn=\"NE=B\">",
+            "<attr name=\"name\">B</attr><attr name=\"X\">x,1</attr></MO></MOTree>");
+        File gz = new File(workDirectory, "grow.xml.gz");
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(gz));
+        Files.copy(dump.toPath(), out);
+        out.close();
+
+        StringWriter records = new StringWriter();
+        HuaweiCMMOTreeParser parser = new HuaweiCMMOTreeParser();
+        parser.setDataSource(gz.getAbsolutePath());
+        parser.setMultiplexedOutput(new PrintWriter(records));
+        parser.parse();
+
+        assertEquals("H,NE,FILENAME,NODENAME,name\n"
+                + "R,NE,grow.xml.gz,A,A\n"
+                + "H,NE,FILENAME,NODENAME,name,X\n"
+                + "R,NE,grow.xml.gz,B,B,\"x,1\"\n",
+                records.toString().replace(System.getProperty("line.separator"), "\n"));
+    }
+
+    private void parseIncremental(File in, File out) throws Exception
+    {
+        parseIncremental(in, out, null);
+    }
+
+    private void parseIncremental(File in, File out, File parameters) throws Exception
+    {
+        HuaweiCMMOTreeParser parser = new HuaweiCMMOTreeParser();
+        if(parameters != null){
+            parser.setParameterFile(parameters.getAbsolutePath());
+            parser.getParametersToExtract(parameters.getAbsolutePath());
+            parser.setParserState(ParserStates.EXTRACTING_VALUES);
+        }
+        parser.setDataSource(in.getAbsolutePath());
+        parser.setOutputDirectory(out.getAbsolutePath());
+        parser.setParseManifest(new ParseManifest(out));
+        parser.parse();
+    }
+
+    File parse(File dump) throws Exception
+    {
+        File out = new File(workDirectory, "out");
+        out.mkdirs();
+        HuaweiCMMOTreeParser parser = new HuaweiCMMOTreeParser();
+        parser.setDataSource(dump.getAbsolutePath());
+        parser.setOutputDirectory(out.getAbsolutePath());
+        parser.parse();
+        return out;
+    }
+}
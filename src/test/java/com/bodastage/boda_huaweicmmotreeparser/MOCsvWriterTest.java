@@ -0,0 +1,76 @@
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Output rotation and sharding tests.
+ */
+public class MOCsvWriterTest extends ParserTestCase
+{
+    /**
+     * Shards roll over after the row limit, repeat the header and survive
+     * being closed to stay under the open file limit.
+     */
+    public void testRotationAndSharding() throws Exception
+    {
+        String dir = workDirectory.getAbsolutePath();
+        MOCsvWriter writer = new MOCsvWriter(dir, "CELL", "FILENAME,NODENAME,A",
+                new OutputRotation(2, 0, true));
+
+        int nodes = MOCsvWriter.MAX_OPEN_SHARDS + 3;
+        for(int row = 0; row < 3; row++){
+            for(int n = 0; n < nodes; n++){
+                writer.println("f.xml,NE" + n + "," + row, "NE" + n);
+            }
+        }
+
+        Map<String, MOCsvWriter> writers = new LinkedHashMap<String, MOCsvWriter>();
+        writers.put("CELL", writer);
+        MOCsvWriter.closeAll(writers, dir, new OutputRotation(2, 0, true));
+
+        List<String> first = readLines(
+                new File(workDirectory, "CELL-NE0-00001.csv"));
+        assertEquals(3, first.size());
+        assertEquals("FILENAME,NODENAME,A", first.get(0));
+        assertEquals("f.xml,NE0,1", first.get(2));
+
+        List<String> second = readLines(
+                new File(workDirectory, "CELL-NE0-00002.csv"));
+        assertEquals(2, second.size());
+        assertEquals("FILENAME,NODENAME,A", second.get(0));
+
+        List<String> manifest = readLines(
+                new File(workDirectory, MOCsvWriter.MANIFEST_FILE));
+        assertEquals(1 + 2 * nodes, manifest.size());
+        assertTrue(manifest.contains("CELL-NE0-00001.csv,CELL,NE0,2,44"));
+    }
+
+    /**
+     * The byte limit and the manifest count encoded bytes, also for values
+     * that are not ASCII.
+     */
+    public void testByteLimitCountsEncodedBytes() throws Exception
+    {
+        String dir = workDirectory.getAbsolutePath();
+        OutputRotation rotation = new OutputRotation(0, 100, false);
+        MOCsvWriter writer = new MOCsvWriter(dir, "CELL", "FILENAME,NODENAME,A", rotation);
+        for(int r = 0; r < 20; r++){
+            writer.println("f.xml,N\u00e9\u00e9,\u4e2d\u6587\ud83d\ude00" + r, null);
+        }
+        Map<String, MOCsvWriter> writers = new LinkedHashMap<String, MOCsvWriter>();
+        writers.put("CELL", writer);
+        MOCsvWriter.closeAll(writers, dir, rotation);
+
+        List<String> manifest = readLines(new File(workDirectory, MOCsvWriter.MANIFEST_FILE));
+        assertTrue(manifest.size() > 2);
+        for(String entry : manifest.subList(1, manifest.size())){
+            String[] fields = entry.split(",");
+            long length = new File(workDirectory, fields[0]).length();
+            assertEquals(entry, length, Long.parseLong(fields[4]));
+            assertTrue(entry, length <= 100);
+        }
+    }
+}
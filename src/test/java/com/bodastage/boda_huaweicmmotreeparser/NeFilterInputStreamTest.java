@@ -0,0 +1,71 @@
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import junit.framework.TestCase;
+
+/**
+ * NE filter stream tests.
+ */
+public class NeFilterInputStreamTest extends TestCase
+{
+    private static final String DUMP =
+        "<?xml version=\"1.0\"?>\n<MOTree>\n"
+        + "<MO className=\"NE\" fdn=\"NE=1\"><attr name=\"name\">A</attr>"
+        + "<MO className=\"CELL\" fdn=\"NE=1,CELL=1\"><attr name=\"x\">a&gt;b</attr></MO>"
+        + "<!-- <MO className=\"X\"> --></MO>\n"
+        + "<MO className=\"NE\" fdn=\"NE=2\"><attr name=\"name\">B&amp;C</attr>"
+        + "<MO className=\"CELL\" fdn=\"NE=2,CELL=1\"/><![CDATA[</MO>]]></MO>\n"
+        + "<MO className=\"NE\" fdn=\"NE=3\"><MO className=\"CELL\" fdn=\"NE=3,CELL=1\">"
+        + "<MO className=\"TRX\" fdn=\"NE=3,CELL=1,TRX=1\"></MO></MO>"
+        + "<attr name=\"name\">D</attr></MO>\n"
+        + "</MOTree>\n";
+
+    /**
+     * Only the selected NEs are passed on, by name or fdn, and everything
+     * around them is kept as it was.
+     */
+    public void testSelectsByNameAndFdn() throws Exception
+    {
+        NeFilterInputStream in = filter("B&C,NE=3");
+        String out = read(in);
+
+        assertEquals(1, in.getSkippedCount());
+        assertEquals(2, in.getKeptCount());
+        assertFalse(out.contains("NE=1"));
+        assertTrue(out.contains("<MO className=\"NE\" fdn=\"NE=2\"><attr name=\"name\">B&amp;C</attr>"
+                + "<MO className=\"CELL\" fdn=\"NE=2,CELL=1\"/><![CDATA[</MO>]]></MO>\n"));
+        assertTrue(out.contains("<attr name=\"name\">D</attr></MO>\n</MOTree>\n"));
+    }
+
+    /**
+     * A regular expression that matches every NE leaves the dump unchanged,
+     * and one that matches none removes all NEs.
+     */
+    public void testRegex() throws Exception
+    {
+        assertEquals(DUMP, read(filter("regex:.*")));
+
+        NeFilterInputStream in = filter("regex:Z.*");
+        assertEquals("<?xml version=\"1.0\"?>\n<MOTree>\n\n\n\n</MOTree>\n", read(in));
+        assertEquals(3, in.getSkippedCount());
+    }
+
+    private NeFilterInputStream filter(String spec)
+    {
+        InputStream in = new ByteArrayInputStream(DUMP.getBytes(Charset.forName("UTF-8")));
+        return new NeFilterInputStream(in, new NeFilter(spec), Charset.forName("UTF-8"));
+    }
+
+    private String read(InputStream in) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        for(int n; (n = in.read(buffer)) > 0; ){
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+}
@@ -0,0 +1,287 @@
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Allocation and throughput regression tests.
+ *
+ * A generated dump is parsed in each mode and the bytes allocated by the
+ * parsing thread are compared with the budgets per MO and per attribute in
+ * parser-budgets.properties. The row count and a checksum of the output are
+ * checked too, so a budget cannot be met by writing less. Throughput is only
+ * checked with -Dperf.throughput=true or the perf profile, since timings
+ * depend on the machine.
+ *
+ * To print the measured values in the budget file format, run:
+ * mvn test -Dtest=ParserRegressionTest -Dperf.record=true
+ */
+public class ParserRegressionTest extends ParserTestCase
+{
+    private static final String BUDGETS = "/parser-budgets.properties";
+
+    private static final int NES = 20;
+
+    private static final int CELLS_PER_NE = 100;
+
+    private static final int TRXS_PER_CELL = 2;
+
+    private static final int CELL_PARAMETERS = 30;
+
+    private static final int WARMUP_RUNS = 2;
+
+    private static final int MEASURED_RUNS = 3;
+
+    private File dump;
+
+    private File parameterFile;
+
+    private long moCount = 0;
+
+    private long attrCount = 0;
+
+    private Properties budgets;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        dump = new File(workDirectory, "regression.xml");
+        parameterFile = new File(workDirectory, "parameters.cfg");
+        generateDump();
+
+        budgets = new Properties();
+        InputStream in = getClass().getResourceAsStream(BUDGETS);
+        try{
+            budgets.load(in);
+        }finally{
+            in.close();
+        }
+    }
+
+    /**
+     * Parameter extraction pass followed by the values pass.
+     */
+    public void testTwoPass() throws Exception
+    {
+        check("twopass", new Run(){
+            @Override
+            public void configure(HuaweiCMMOTreeParser parser) throws Exception {
+            }
+        });
+    }
+
+    /**
+     * Single pass with a parameter file.
+     */
+    public void testParameterFile() throws Exception
+    {
+        check("config", new Run(){
+            @Override
+            public void configure(HuaweiCMMOTreeParser parser) throws Exception {
+                parser.setParameterFile(parameterFile.getAbsolutePath());
+                parser.getParametersToExtract(parameterFile.getAbsolutePath());
+                parser.setParserState(ParserStates.EXTRACTING_VALUES);
+            }
+        });
+    }
+
+    private interface Run {
+        void configure(HuaweiCMMOTreeParser parser) throws Exception;
+    }
+
+    /**
+     * Measure a mode and compare it with its budgets.
+     */
+    private void check(String mode, Run run) throws Exception
+    {
+        com.sun.management.ThreadMXBean threads
+                = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if(!threads.isThreadAllocatedMemorySupported()){
+            System.err.println("Thread allocation counters not supported, skipping " + mode);
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        long allocated = Long.MAX_VALUE;
+        long nanos = Long.MAX_VALUE;
+        long rows = 0;
+        String crc = null;
+        for(int i = 0; i < WARMUP_RUNS + MEASURED_RUNS; i++){
+            File out = new File(workDirectory, mode + i);
+            out.mkdirs();
+
+            HuaweiCMMOTreeParser parser = new HuaweiCMMOTreeParser();
+            parser.setProgressStream(new PrintStream(new OutputStream(){
+                @Override
+                public void write(int b){
+                }
+            }));
+            parser.setDataSource(dump.getAbsolutePath());
+            parser.setOutputDirectory(out.getAbsolutePath());
+            run.configure(parser);
+
+            long before = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            parser.parse();
+            long elapsed = System.nanoTime() - start;
+            long after = threads.getThreadAllocatedBytes(threadId);
+
+            rows = countRows(out);
+            crc = checksum(out);
+            deleteRecursively(out);
+            if(i < WARMUP_RUNS) continue;
+
+            allocated = Math.min(allocated, after - before);
+            nanos = Math.min(nanos, elapsed);
+        }
+
+        long bytesPerMO = allocated / moCount;
+        long bytesPerAttr = allocated / attrCount;
+        double mbPerSecond = (dump.length() / 1048576.0) / (nanos / 1e9);
+
+        if(Boolean.getBoolean("perf.record")){
+            System.out.println(mode + ".rows=" + rows);
+            System.out.println(mode + ".crc=" + crc);
+            System.out.println("#measured " + bytesPerMO + " bytes/MO, "
+                    + bytesPerAttr + " bytes/attr, "
+                    + String.format("%.1f", mbPerSecond) + " MB/s");
+            System.out.println(mode + ".bytesPerMO=" + (bytesPerMO * 5 / 4));
+            System.out.println(mode + ".bytesPerAttr=" + (bytesPerAttr * 5 / 4));
+        }
+
+        assertEquals(mode + ": row count", Long.parseLong(budget(mode, "rows")), rows);
+        assertEquals(mode + ": output checksum", budget(mode, "crc"), crc);
+
+        long maxPerMO = Long.parseLong(budget(mode, "bytesPerMO"));
+        assertTrue(mode + ": allocated " + bytesPerMO + " bytes per MO, budget is "
+                + maxPerMO + ". Check the hot path for new garbage or update "
+                + "src/test/resources" + BUDGETS + " if the increase is intended.", bytesPerMO <= maxPerMO);
+
+        long maxPerAttr = Long.parseLong(budget(mode, "bytesPerAttr"));
+        assertTrue(mode + ": allocated " + bytesPerAttr + " bytes per attribute, budget is "
+                + maxPerAttr + ". Check the hot path for new garbage or update "
+                + "src/test/resources" + BUDGETS + " if the increase is intended.", bytesPerAttr <= maxPerAttr);
+
+        if(Boolean.getBoolean("perf.throughput")){
+            double minMBps = Double.parseDouble(budget(mode, "minMBps"));
+            assertTrue(mode + ": parsed " + String.format("%.1f", mbPerSecond)
+                    + " MB/s, minimum is " + minMBps + " MB/s.", mbPerSecond >= minMBps);
+        }
+    }
+
+    private String budget(String mode, String name)
+    {
+        String value = budgets.getProperty(mode + "." + name);
+        assertNotNull("Missing " + mode + "." + name + " in " + BUDGETS, value);
+        return value.trim();
+    }
+
+    /**
+     * Data rows in all csv files.
+     */
+    private long countRows(File out) throws Exception
+    {
+        long rows = 0;
+        for(File f : csvFiles(out)){
+            rows += readLines(f).size() - 1;
+        }
+        return rows;
+    }
+
+    /**
+     * CRC32 of the csv files in name order, independent of line separators.
+     */
+    private String checksum(File out) throws Exception
+    {
+        CRC32 crc = new CRC32();
+        for(File f : csvFiles(out)){
+            crc.update(f.getName().getBytes(StandardCharsets.UTF_8));
+            for(String line : readLines(f)){
+                crc.update(line.getBytes(StandardCharsets.UTF_8));
+                crc.update('\n');
+            }
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    private File[] csvFiles(File out)
+    {
+        File[] files = out.listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Write a deterministic dump of NEs holding cells holding TRXs, and a
+     * parameter file with all of their columns.
+     */
+    private void generateDump() throws Exception
+    {
+        Random random = new Random(42);
+        String[] values = {"0", "1", "255", "ENABLED", "a,b", "q\"q", "x y z"};
+
+        PrintWriter pw = new PrintWriter(dump, "UTF-8");
+        pw.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        pw.println("<MOTree>");
+        for(int ne = 0; ne < NES; ne++){
+            String neFdn = "NE=" + ne;
+            pw.println("<MO className=\"BSC6900GSMNE\" fdn=\"" + neFdn + "\">");
+            attr(pw, "fdn", neFdn);
+            attr(pw, "name", "BSC" + ne);
+            moCount++;
+
+            for(int cell = 0; cell < CELLS_PER_NE; cell++){
+                String cellFdn = neFdn + ",GCELL=" + cell;
+                pw.println("<MO className=\"BSC6900GSMGCELL\" fdn=\"" + cellFdn + "\">");
+                attr(pw, "fdn", cellFdn);
+                for(int p = 0; p < CELL_PARAMETERS; p++){
+                    if(random.nextInt(10) == 0) continue;
+                    String value = values[random.nextInt(values.length)];
+                    attr(pw, "P" + p, value.replace("\"", "&quot;"));
+                }
+                moCount++;
+
+                for(int trx = 0; trx < TRXS_PER_CELL; trx++){
+                    String trxFdn = cellFdn + ",TRX=" + trx;
+                    pw.println("<MO className=\"BSC6900GSMTRX\" fdn=\"" + trxFdn + "\">");
+                    attr(pw, "fdn", trxFdn);
+                    attr(pw, "TRXID", String.valueOf(trx));
+                    attr(pw, "FREQ", String.valueOf(random.nextInt(1024)));
+                    pw.println("</MO>");
+                    moCount++;
+                }
+                pw.println("</MO>");
+            }
+            pw.println("</MO>");
+        }
+        pw.println("</MOTree>");
+        pw.close();
+
+        StringBuilder cells = new StringBuilder("BSC6900GSMGCELL:fdn");
+        for(int p = 0; p < CELL_PARAMETERS; p++){
+            cells.append(",P").append(p);
+        }
+        List<String> lines = Arrays.asList("BSC6900GSMNE:fdn,name", cells.toString(),
+                "BSC6900GSMTRX:fdn,TRXID,FREQ");
+        Files.write(parameterFile.toPath(), lines, StandardCharsets.UTF_8);
+    }
+
+    private void attr(PrintWriter pw, String name, String value)
+    {
+        pw.println("<attr name=\"" + name + "\">" + value + "</attr>");
+        attrCount++;
+    }
+}
@@ -0,0 +1,87 @@
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Temporary work directory and dump fixtures shared by the parser tests.
+ */
+public abstract class ParserTestCase extends TestCase
+{
+    protected File workDirectory;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        workDirectory = Files.createTempDirectory("motree").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        deleteRecursively(workDirectory);
+    }
+
+    /**
+     * Write an XML dump with the given lines under the work directory.
+     */
+    protected File writeDump(String name, String... lines) throws Exception
+    {
+        return writeDump(new File(workDirectory, name), lines);
+    }
+
+    /**
+     * Write an XML dump with the given lines.
+     */
+    protected static File writeDump(File dump, String... lines) throws Exception
+    {
+        PrintWriter pw = new PrintWriter(dump, "UTF-8");
+        pw.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        for(String line : lines){
+            pw.println(line);
+        }
+        pw.close();
+        return dump;
+    }
+
+    /**
+     * Write a text file with the given lines.
+     */
+    protected static File writeLines(File file, String... lines) throws Exception
+    {
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    /**
+     * Write a dump holding a single BSC6900GSMNE with the given attributes.
+     */
+    protected static File writeNeDump(File dump, String fdn, String attrs) throws Exception
+    {
+        return writeDump(dump,
+                "<MOTree><MO className=\"BSC6900GSMNE\" fdn=\"" + fdn + "\">",
+                attrs,
+                "</MO></MOTree>");
+    }
+
+    static List<String> readLines(File file) throws Exception
+    {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    static void deleteRecursively(File file)
+    {
+        File[] children = file.listFiles();
+        if(children != null){
+            for(File child : children){
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,53 @@
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Compares the generic row encoder with the specialised row encoder.
+ *
+ * Run with:
+ * java -cp target/classes:target/test-classes:dist/boda-huaweicmmotreeparser.jar com.bodastage.boda_huaweicmmotreeparser.RowEncoderBenchmark
+ */
+public class RowEncoderBenchmark
+{
+    public static void main(String[] args)
+    {
+        int columnCount = args.length > 0 ? Integer.parseInt(args[0]) : 80;
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        Stack columns = new Stack();
+        Map<String, String> attrs = new LinkedHashMap<String, String>();
+        for(int i = 0; i < columnCount; i++){
+            columns.push("PARAMETER" + i);
+            if(i % 5 != 0) attrs.put("PARAMETER" + i, i % 7 == 0 ? "a,b" : "VALUE" + i);
+        }
+        RowEncoder genericEncoder = new RowEncoder(columns);
+        RowEncoder encoder = new SpecialisedRowEncoder(columns);
+        if(!genericEncoder.encode("dump.xml", "NE1", attrs).equals(
+                encoder.encode("dump.xml", "NE1", attrs))){
+            throw new IllegalStateException("The encoders disagree");
+        }
+
+        long sink = 0;
+        for(int round = 0; round < 5; round++){
+            long start = System.nanoTime();
+            for(int r = 0; r < rows; r++){
+                sink += genericEncoder.encode("dump.xml", "NE1", attrs).length();
+            }
+            long generic = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(int r = 0; r < rows; r++){
+                sink += encoder.encode("dump.xml", "NE1", attrs).length();
+            }
+            long specialised = System.nanoTime() - start;
+
+            System.out.println("round " + round + ": generic " + (generic / rows) 
+                    + " ns/row, specialised " + (specialised / rows) + " ns/row, speedup "
+                    + String.format("%.1f", (double) generic / specialised) + "x");
+        }
+        System.out.println(sink);
+    }
+}
@@ -0,0 +1,52 @@
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Stack;
+import junit.framework.TestCase;
+
+/**
+ * Row encoder tests.
+ */
+public class RowEncoderTest extends TestCase
+{
+    /**
+     * The generic and the specialised encoder skip the default columns and
+     * quote values like toCSVFormat.
+     */
+    public void testSpecialisedEncoderMatchesGeneric()
+    {
+        Stack columns = new Stack();
+        columns.push("fdn");
+        columns.push("NodeName");
+        columns.push("A");
+        columns.push("B");
+        columns.push("C");
+        columns.push("DATETIME");
+
+        Map<String, String> attrs = new LinkedHashMap<String, String>();
+        attrs.put("fdn", "NE=1,CELL=2");
+        attrs.put("A", "say \"hi\", there");
+        attrs.put("C", "plain");
+
+        RowEncoder encoder = new RowEncoder(columns);
+        RowEncoder specialised = new SpecialisedRowEncoder(columns);
+        assertEquals("FILENAME,NODENAME,fdn,A,B,C", encoder.header);
+        assertEquals(encoder.header, specialised.header);
+        assertEquals("\"say \"\"hi\"\", there\"", HuaweiCMMOTreeParser.toCSVFormat("say \"hi\", there"));
+        assertEquals("\"a,b\"", HuaweiCMMOTreeParser.toCSVFormat("a,b"));
+        assertEquals("plain", HuaweiCMMOTreeParser.toCSVFormat("plain"));
+        assertEquals("d.xml,\"NE,1\",\"NE=1,CELL=2\",\"say \"\"hi\"\", there\",,plain",
+            encoder.encode("d.xml", "NE,1", attrs));
+        assertEquals(encoder.encode("d.xml", "NE,1", attrs),
+            specialised.encode("d.xml", "NE,1", attrs));
+
+        Stack defaults = new Stack();
+        defaults.push("FILENAME");
+        assertEquals("d.xml,NE1", new SpecialisedRowEncoder(defaults).encode("d.xml", "NE1", attrs));
+
+        assertTrue(specialised.isValidFor(columns));
+        columns.push("D");
+        assertFalse(specialised.isValidFor(columns));
+    }
+}
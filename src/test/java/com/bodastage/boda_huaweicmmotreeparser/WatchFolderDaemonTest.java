@@ -0,0 +1,116 @@
+package com.bodastage.boda_huaweicmmotreeparser;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Watch mode tests.
+ */
+public class WatchFolderDaemonTest extends ParserTestCase
+{
+    private static final long TIMEOUT = 20000;
+
+    private File in;
+
+    private File out;
+
+    private File done;
+
+    private WatchFolderDaemon daemon;
+
+    private Thread thread;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        in = new File(workDirectory, "in");
+        in.mkdirs();
+        out = new File(workDirectory, "out");
+        done = new File(workDirectory, "done");
+
+        //One pooled parser handles all jobs
+        daemon = new WatchFolderDaemon(in, out, done, 1);
+        daemon.setPollIntervalMillis(20);
+        thread = new Thread(new Runnable(){
+            @Override
+            public void run(){
+                try{
+                    daemon.run();
+                }catch(Exception e){
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        daemon.stop();
+        thread.join(TIMEOUT);
+        super.tearDown();
+    }
+
+    /**
+     * Each dump gets its own output directory and is moved to done, a
+     * broken dump goes to done/failed and nothing of a job is left in the
+     * parser for the next one.
+     */
+    public void testJobsAreParsedSeparately() throws Exception
+    {
+        writeDump(new File(in, "a.xml"),
+            "<MOTree><MO className=\"NE\" fdn=\"NE=A\">",
+            "<attr name=\"name\">A</attr><attr name=\"X\">1</attr>",
+            "<MO className=\"CELL\" fdn=\"NE=A,CELL=1\"><attr name=\"C\">c</attr></MO>",
+            "</MO></MOTree>");
+        waitFor(new File(done, "a.xml"));
+
+        writeDump(new File(in, "broken.xml"),
+            "<MOTree><MO className=\"NE\" fdn=\"NE=Z\">",
+            "<attr name=\"name\">Z</attr><attr name=\"Q\">");
+        waitFor(new File(done, "failed/broken.xml"));
+
+        writeDump(new File(in, "a.xml"),
+            "<MOTree><MO className=\"NE\" fdn=\"NE=B\">",
+            "<attr name=\"name\">B</attr><attr name=\"Y\">2</attr></MO></MOTree>");
+        waitForMove(new File(in, "a.xml"));
+
+        List<String> first = readLines(new File(out, "a.xml/NE.csv"));
+        assertEquals(Arrays.asList("FILENAME,NODENAME,name,X", "a.xml,A,A,1"), first);
+        assertTrue(new File(out, "a.xml/CELL.csv").exists());
+
+        //Neither the columns, the classNames nor the node name of the
+        //earlier jobs show up
+        File second = new File(out, "a.xml-1");
+        assertEquals(Arrays.asList("FILENAME,NODENAME,name,Y", "a.xml,B,B,2"),
+                readLines(new File(second, "NE.csv")));
+        assertEquals(1, second.list().length);
+    }
+
+    /**
+     * Wait until the daemon has moved the dump out of the input directory.
+     */
+    private void waitForMove(File dump) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while(dump.exists()){
+            assertTrue("Timed out waiting for " + dump, System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * Wait until the daemon has produced the file.
+     */
+    private void waitFor(File file) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while(!file.exists()){
+            assertTrue("Timed out waiting for " + file, System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}